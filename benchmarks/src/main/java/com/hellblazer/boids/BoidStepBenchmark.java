@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.boids;
+
+import java.awt.Color;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.vecmath.Point3i;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hellblazer.boids.behavior.FlockingPrey;
+import com.hellblazer.boids.benchmarks.Neighborhood;
+import com.hellblazer.boids.benchmarks.Neighborhood.FixedCursor;
+import com.hellblazer.boids.benchmarks.Neighborhood.Hunter;
+import com.hellblazer.boids.benchmarks.Neighborhood.Mate;
+import com.hellblazer.boids.engine.Parameters;
+import com.hellblazer.primeMover.controllers.SteppingController;
+
+/**
+ * A single prey's step, both as the bare computation and including the event
+ * dispatch of the step itself. Run with <code>-prof gc</code> to confirm that
+ * <code>advance</code> does not allocate.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BoidStepBenchmark {
+    @Param({ "2000", "10000", "20000" })
+    public int aoiRadius;
+
+    @Param({ "8", "64", "512", "4096" })
+    public int neighbors;
+
+    private final Point3i      center     = new Point3i(75_000, 50_000, 0);
+    private SteppingController controller;
+    private final Parameters   parameters = new Parameters();
+    private Prey<Mate, Hunter> prey;
+
+    @Benchmark
+    public void advance() {
+        prey.advance();
+    }
+
+    @Setup
+    public void setup() {
+        prey = prey(new Random(666), center, aoiRadius, neighbors, parameters);
+        controller = new SteppingController();
+        Neighborhood.attach(prey, new FixedCursor(center), controller);
+    }
+
+    @Benchmark
+    public void step() {
+        prey.step();
+        Neighborhood.drain(controller);
+    }
+
+    /**
+     * @return a prey surrounded by the number of flock mates within the radius
+     */
+    static Prey<Mate, Hunter> prey(Random random, Point3i center, int radius, int neighbors, Parameters parameters) {
+        FlockingPrey<Mate, Hunter> behavior = new FlockingPrey<>();
+        behavior.setFlockClass(Mate.class);
+        behavior.setPredatorClass(Hunter.class);
+        behavior.setCohesionChange(parameters.preyCohesionChange);
+        behavior.setMaximumFlockDistance(parameters.maximumPreyFlockDistance);
+        behavior.setRepellerChange(parameters.preyRepellerChange);
+        behavior.setVelocityMatchChange(parameters.preyVelocityMatchChange);
+        behavior.setScareDistance(parameters.preyScareDistance);
+        behavior.setPredatorFleeChange(parameters.predatorFleeChange);
+        for (Point3i position : Neighborhood.scatter(random, center, radius, neighbors)) {
+            Mate mate = new Mate();
+            behavior.notice(mate, position);
+            behavior.move(mate, position, Neighborhood.randomVelocity(random, parameters.maxPreySpeed));
+        }
+        int scale = parameters.scale;
+        Prey<Mate, Hunter> prey = new Prey<>(behavior, Neighborhood.randomVelocity(random, parameters.maxPreySpeed),
+                                             parameters.maxPreySpeed,
+                                             new Animation(scale, 5 * scale, 5 * scale, Color.blue, 1),
+                                             parameters.field(), dead -> {
+                                             });
+        prey.setRandomChange(parameters.preyRandomChange);
+        return prey;
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.boids;
+
+import java.awt.Color;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.vecmath.Point3i;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hellblazer.boids.behavior.PredatorPack;
+import com.hellblazer.boids.benchmarks.Neighborhood;
+import com.hellblazer.boids.benchmarks.Neighborhood.FixedCursor;
+import com.hellblazer.boids.benchmarks.Neighborhood.Hunter;
+import com.hellblazer.boids.benchmarks.Neighborhood.Mate;
+import com.hellblazer.boids.engine.Parameters;
+import com.hellblazer.primeMover.controllers.SteppingController;
+
+/**
+ * Target acquisition by a predator with a swarm of prey in its area of
+ * interest.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PredatorBenchmark {
+    @Param({ "10000", "20000", "40000" })
+    public int aoiRadius;
+
+    @Param({ "false", "true" })
+    public boolean indexed;
+
+    @Param({ "8", "64", "512", "4096" })
+    public int neighbors;
+
+    private final Point3i          center     = new Point3i(75_000, 50_000, 0);
+    private final Parameters       parameters = new Parameters();
+    private Predator<Hunter, Mate> predator;
+
+    @Benchmark
+    public Mate findTarget() {
+        predator.target = null;
+        predator.findTarget();
+        return predator.target;
+    }
+
+    @Setup
+    public void setup() {
+        Random random = new Random(666);
+        PredatorPack<Hunter, Mate> pack = new PredatorPack<>();
+        pack.setFlockClass(Hunter.class);
+        pack.setPreyClass(Mate.class);
+        pack.setCohesionChange(parameters.predatorCohesionChange);
+        pack.setMaximumFlockDistance(parameters.maximumPredatorFlockDistance);
+        pack.setRepellerChange(parameters.predatorRepellerChange);
+        pack.setVelocityMatchChange(parameters.predatorVelocityMatchChange);
+        pack.setHuntChange(parameters.predatorHuntChange);
+        pack.setPreyIndex(indexed ? parameters.predatorSeekRadius : 0);
+        for (Point3i position : Neighborhood.scatter(random, center, aoiRadius, neighbors)) {
+            pack.notice(new Mate(), position);
+        }
+        int scale = parameters.scale;
+        predator = new Predator<>(pack, Neighborhood.randomVelocity(random, parameters.maxPredatorSpeed),
+                                  parameters.maxPredatorSpeed, new Animation(scale, 10 * scale, 10 * scale, Color.red, 2),
+                                  parameters.field(), parameters.predatorSeekRadius, parameters.predatorCatchDistance,
+                                  parameters.maxPredatorChaseSpeed, dead -> {
+                                  });
+        Neighborhood.attach(predator, new FixedCursor(center), new SteppingController());
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.boids.behavior;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.vecmath.Point3i;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hellblazer.boids.benchmarks.Neighborhood;
+import com.hellblazer.boids.benchmarks.Neighborhood.FixedCursor;
+import com.hellblazer.boids.benchmarks.Neighborhood.Hunter;
+import com.hellblazer.boids.benchmarks.Neighborhood.Mate;
+import com.hellblazer.boids.engine.Parameters;
+import com.hellblazer.geometry.Vector3i;
+
+/**
+ * The flocking, separation, flee and hunt vectors of a single boid, as a
+ * function of the number of neighbors within its area of interest.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = { "--enable-preview", "--add-modules", "jdk.incubator.vector" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FlockingBenchmark {
+    @Param({ "2000", "10000", "20000" })
+    public int aoiRadius;
+
+    @Param({ "8", "64", "512", "4096" })
+    public int neighbors;
+
+    /**
+     * How separation finds the close flock mates: scanning the flock map, the
+     * uniform grid, the scalar or Vector API kernel, or tracking them as they
+     * move
+     */
+    @Param({ "scan", "grid", "scalar", "vector", "tracked" })
+    public String separation;
+
+    private final Point3i              center     = new Point3i(75_000, 50_000, 0);
+    private int                        maximumSpeed;
+    private PredatorPack<Hunter, Mate> pack;
+    private final Parameters           parameters = new Parameters();
+    private FlockingPrey<Mate, Hunter> prey;
+    private final Vector3i             velocity   = new Vector3i(150, -220, 0);
+
+    @Benchmark
+    public Vector3i flockingVector() {
+        return prey.getFlockingVector(center, velocity, maximumSpeed);
+    }
+
+    @Benchmark
+    public Vector3i huntVector() {
+        return pack.getHuntVector(center, maximumSpeed);
+    }
+
+    @Benchmark
+    public Vector3i predatorFleeVector() {
+        return prey.getPredatorFleeVector(center);
+    }
+
+    @Benchmark
+    public Vector3i repellerVector() {
+        return prey.getRepellerVector(center, maximumSpeed);
+    }
+
+    @Setup
+    public void setup() {
+        if (separation.equals("vector") && !SeparationKernel.isVectorAvailable()) {
+            // the scalar kernel would be measured in its place
+            throw new IllegalStateException("The vector kernel is unavailable: build with -Pvector and run with "
+                                            + "--add-modules jdk.incubator.vector");
+        }
+        Random random = new Random(666);
+        maximumSpeed = parameters.maxPreySpeed;
+
+        prey = new FlockingPrey<>();
+        prey.setFlockClass(Mate.class);
+        prey.setPredatorClass(Hunter.class);
+        prey.setCohesionChange(parameters.preyCohesionChange);
+        prey.setMaximumFlockDistance(parameters.maximumPreyFlockDistance);
+        prey.setRepellerChange(parameters.preyRepellerChange);
+        prey.setVelocityMatchChange(parameters.preyVelocityMatchChange);
+        prey.setScareDistance(parameters.preyScareDistance);
+        prey.setPredatorFleeChange(parameters.predatorFleeChange);
+        prey.setSeparationGrid(separation.equals("grid"));
+        if (separation.equals("scalar") || separation.equals("vector")) {
+            prey.setSeparationKernel(SeparationKernel.create(separation.equals("vector")));
+        }
+        if (separation.equals("tracked")) {
+            prey.setCloseNeighbors(new FixedCursor(center));
+        }
+
+        pack = new PredatorPack<>();
+        pack.setFlockClass(Hunter.class);
+        pack.setPreyClass(Mate.class);
+        pack.setCohesionChange(parameters.predatorCohesionChange);
+        pack.setMaximumFlockDistance(parameters.maximumPredatorFlockDistance);
+        pack.setRepellerChange(parameters.predatorRepellerChange);
+        pack.setVelocityMatchChange(parameters.predatorVelocityMatchChange);
+        pack.setHuntChange(parameters.predatorHuntChange);
+
+        for (Point3i position : Neighborhood.scatter(random, center, aoiRadius, neighbors)) {
+            Mate mate = new Mate();
+            prey.notice(mate, position);
+            prey.move(mate, position, Neighborhood.randomVelocity(random, maximumSpeed));
+            pack.notice(mate, position);
+        }
+        for (Point3i position : Neighborhood.scatter(random, center, aoiRadius, Math.max(1, neighbors / 12))) {
+            Hunter hunter = new Hunter();
+            prey.notice(hunter, position);
+            pack.notice(hunter, position);
+            pack.move(hunter, position, Neighborhood.randomVelocity(random, maximumSpeed));
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.boids.benchmarks;
+
+import java.util.Random;
+
+import javax.vecmath.Point3i;
+
+import com.hellblazer.boids.Boid;
+import com.hellblazer.boids.BoidImpl;
+import com.hellblazer.geometry.Vector3i;
+import com.hellblazer.primeMover.controllers.SteppingController;
+import com.hellblazer.primeMover.runtime.Framework;
+import com.hellblazer.thoth.Cursor;
+import com.hellblazer.thoth.Perceiving;
+
+/**
+ * Synthetic neighborhoods for benchmarking a single boid's behavior without
+ * standing up a Thoth overlay.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public final class Neighborhood {
+    /**
+     * A cursor that simply tracks its location
+     */
+    public static class FixedCursor implements Cursor {
+        private final Point3i location;
+
+        public FixedCursor(Point3i location) {
+            this.location = new Point3i(location);
+        }
+
+        @Override
+        public Point3i getLocation() {
+            return location;
+        }
+
+        @Override
+        public void moveBy(Vector3i velocity) {
+            location.add(velocity);
+        }
+    }
+
+    /**
+     * A neighbor of the predator species
+     */
+    public static class Hunter extends Neighbor {
+    }
+
+    /**
+     * A neighbor of the prey species
+     */
+    public static class Mate extends Neighbor {
+    }
+
+    /**
+     * An inert neighbor, only ever used as a key in the behavior's neighbor
+     * tables
+     */
+    public static abstract class Neighbor implements Boid<Perceiving> {
+        @Override
+        public void eatenBy(Boid<?> predator) {
+        }
+
+        @Override
+        public void fade(Perceiving neighbor) {
+        }
+
+        @Override
+        public void move(Perceiving neighbor, Point3i location, Vector3i velocity) {
+        }
+
+        @Override
+        public void notice(Perceiving neighbor, Point3i location) {
+        }
+
+        @Override
+        public void setCursor(Cursor cursor) {
+        }
+
+        @Override
+        public void step() {
+        }
+    }
+
+    /**
+     * Attach the cursor to the boid. Entity methods may be dispatched as events,
+     * so the controller is drained to make sure the cursor is in place.
+     */
+    public static void attach(BoidImpl<?> boid, Cursor cursor, SteppingController controller) {
+        Framework.setController(controller);
+        boid.setCursor(cursor);
+        drain(controller);
+    }
+
+    /**
+     * Process any events pending in the controller
+     */
+    public static void drain(SteppingController controller) {
+        try {
+            controller.step();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Unable to step controller", e);
+        }
+    }
+
+    /**
+     * @return a random velocity with components in [-maximumSpeed, maximumSpeed)
+     */
+    public static Vector3i randomVelocity(Random random, int maximumSpeed) {
+        return new Vector3i(random.nextInt(maximumSpeed * 2) - maximumSpeed,
+                            random.nextInt(maximumSpeed * 2) - maximumSpeed, 0);
+    }
+
+    /**
+     * @return count positions uniformly distributed in the disc of the radius
+     *         around the center
+     */
+    public static Point3i[] scatter(Random random, Point3i center, int radius, int count) {
+        Point3i[] positions = new Point3i[count];
+        for (int i = 0; i < count; i++) {
+            double r = radius * Math.sqrt(random.nextDouble());
+            double theta = 2 * Math.PI * random.nextDouble();
+            positions[i] = new Point3i(center.x + (int) (r * Math.cos(theta)), center.y + (int) (r * Math.sin(theta)),
+                                       center.z);
+        }
+        return positions;
+    }
+
+    private Neighborhood() {
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.boids.engine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A full tick of the headless simulation. The field is sized so that, on
+ * average, each boid has <code>density</code> neighbors within its area of
+ * interest.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class TickBenchmark {
+    /**
+     * @return parameters for the population, with the field sized to produce the
+     *         neighbor density within the area of interest
+     */
+    public static Parameters parameters(int population, int aoiRadius, int density) {
+        Parameters parameters = new Parameters();
+        parameters.numOfPredators = Math.max(1, population / 12);
+        parameters.numOfPrey = population - parameters.numOfPredators;
+        parameters.preyAoiRadius = aoiRadius;
+        double area = population * Math.PI * aoiRadius * aoiRadius / density;
+        double width = Math.sqrt(area * 1.5);
+        parameters.width = Math.max(1, (int) (width / parameters.scale));
+        parameters.height = Math.max(1, (int) (area / width / parameters.scale));
+        return parameters;
+    }
+
+    /**
+     * @return parameters for the population in a field with depth, sized to
+     *         produce the neighbor density within the spherical area of interest
+     */
+    public static Parameters volumetric(int population, int aoiRadius, int density) {
+        Parameters parameters = parameters(population, aoiRadius, density);
+        double volume = population * 4.0 / 3.0 * Math.PI * aoiRadius * aoiRadius * aoiRadius / density;
+        double side = Math.cbrt(volume / 1.5);
+        parameters.width = Math.max(1, (int) (side * 1.5 / parameters.scale));
+        parameters.height = Math.max(1, (int) (side / parameters.scale));
+        parameters.depth = Math.max(1, (int) (side / parameters.scale));
+        return parameters;
+    }
+
+    @Param({ "5000", "10000", "20000" })
+    public int aoiRadius;
+
+    @Param({ "4", "16", "64" })
+    public int density;
+
+    /**
+     * The most ticks a quiet boid's step covers; one steps every boid every tick
+     */
+    @Param({ "1" })
+    public int maximumStride;
+
+    /**
+     * Steering threads of the two phase tick; zero for the sequential tick
+     */
+    @Param({ "0" })
+    public int parallelism;
+
+    @Param({ "100", "1000", "10000", "100000" })
+    public int population;
+
+    /**
+     * Flock in three dimensions, perceiving through the grid
+     */
+    @Param({ "false" })
+    public boolean volumetric;
+
+    private Simulation simulation;
+
+    @Setup
+    public void setup() {
+        Parameters parameters = volumetric ? volumetric(population, aoiRadius, density)
+                                           : parameters(population, aoiRadius, density);
+        parameters.parallelism = parallelism;
+        parameters.maximumStride = maximumStride;
+        simulation = new Simulation(parameters);
+        simulation.init();
+    }
+
+    @TearDown
+    public void tearDown() {
+        simulation.close();
+    }
+
+    @Benchmark
+    public void tick() {
+        simulation.tick();
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.hellblazer.boids.render;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hellblazer.boids.engine.Snapshot;
+
+/**
+ * Rasterizing a frame of boids and trails. Each frame is a new tick, so the
+ * trails advance with every render; a frame must render in under 16ms to
+ * sustain 60 fps.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RenderBenchmark {
+    private static final int HEIGHT = 1000;
+    private static final int SCALE  = 100;
+    private static final int WIDTH  = 1500;
+
+    @Param({ "1000", "10000", "100000" })
+    public int population;
+
+    private int            frame;
+    private Snapshot[]     frames;
+    private RasterRenderer renderer;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(666);
+        int[] xs = new int[population];
+        int[] ys = new int[population];
+        int[] vxs = new int[population];
+        int[] vys = new int[population];
+        for (int i = 0; i < population; i++) {
+            xs[i] = random.nextInt(WIDTH * SCALE);
+            ys[i] = random.nextInt(HEIGHT * SCALE);
+            vxs[i] = random.nextInt(8 * SCALE) - 4 * SCALE;
+            vys[i] = random.nextInt(8 * SCALE) - 4 * SCALE;
+        }
+        frames = new Snapshot[64];
+        for (int f = 0; f < frames.length; f++) {
+            Snapshot.Builder builder = new Snapshot.Builder(f, population);
+            for (int i = 0; i < population; i++) {
+                int kind = i % 12 == 0 ? Snapshot.PREDATOR : Snapshot.PREY;
+                builder.add(i, kind, kind == Snapshot.PREDATOR ? 0xFF0000 : 0x00FF00, xs[i] + vxs[i] * f,
+                            ys[i] + vys[i] * f, 0, vxs[i], vys[i], 0);
+            }
+            frames[f] = builder.build();
+        }
+        renderer = new RasterRenderer(WIDTH, HEIGHT, SCALE, 5);
+        for (Snapshot snapshot : frames) {
+            renderer.render(snapshot);
+        }
+    }
+
+    @Benchmark
+    public Object render() {
+        return renderer.render(frames[frame++ & (frames.length - 1)]);
+    }
+}
@@ -96,6 +96,23 @@ public class Animation {
         }
     }
 
+    public Color getColor() {
+        return color;
+    }
+
+    /**
+     * Start afresh at the position, as when a dead boid is recycled as a
+     * newborn
+     */
+    public void reset(Color color, Point3i position) {
+        this.color = color;
+        for (Point3i old : oldPositions) {
+            old.set(position);
+        }
+        this.position = position;
+        selected = false;
+    }
+
     public void setPerceptron(Perceptron<?> perceptron) {
         this.perceptron = perceptron;
     }
@@ -105,10 +122,12 @@ public class Animation {
     }
 
     public void update(Point3i newPosition) {
+        Point3i oldest = oldPositions[0];
         for (int i = 0; i < 4; i++) {
-            oldPositions[i] = new Point3i(oldPositions[i + 1]);
+            oldPositions[i] = oldPositions[i + 1];
         }
-        oldPositions[4] = new Point3i(position);
+        oldest.set(position);
+        oldPositions[4] = oldest;
         position = newPosition;
     }
 
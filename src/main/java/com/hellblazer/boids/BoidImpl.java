@@ -17,12 +17,18 @@
 
 package com.hellblazer.boids;
 
-import java.util.Random;
-
 import javax.vecmath.Point3i;
 
+import jdk.jfr.EventType;
+
 import com.hellblazer.boids.behavior.FlockingBehavior;
+import com.hellblazer.boids.behavior.Speciated;
+import com.hellblazer.boids.jfr.FadeEvent;
+import com.hellblazer.boids.jfr.MoveEvent;
+import com.hellblazer.boids.jfr.NoticeEvent;
+import com.hellblazer.boids.jfr.StepEvent;
 import com.hellblazer.geometry.Vector3i;
+import com.hellblazer.primeMover.Kronos;
 import com.hellblazer.primeMover.annotations.Entity;
 import com.hellblazer.primeMover.annotations.NonEvent;
 import com.hellblazer.thoth.Cursor;
@@ -35,16 +41,37 @@ import com.hellblazer.thoth.Perceiving;
  */
 
 @Entity({ Boid.class })
-abstract public class BoidImpl<Flock extends Perceiving> implements Boid<Flock> {
-    protected static Random           RANDOM   = new Random(666);
+abstract public class BoidImpl<Flock extends Perceiving> implements Boid<Flock>, Speciated {
+    private static final EventType FADE   = EventType.getEventType(FadeEvent.class);
+    private static final EventType MOVE   = EventType.getEventType(MoveEvent.class);
+    private static final EventType NOTICE = EventType.getEventType(NoticeEvent.class);
+    private static final EventType STEP   = EventType.getEventType(StepEvent.class);
+
     protected Animation               animation;
     protected FlockingBehavior<Flock> behavior;
+    protected int                     cruisingStride = 1;
+    protected int                     delay;
+    protected long                    fades;
     protected Point3i                 field;
+    protected int                     generation;
     protected God                     god;
+    protected int                     id;
     protected Cursor                  locator;
     protected int                     maximumSpeed;
+    protected int                     maximumStride  = 1;
+    protected long                    moves;
+    protected final Point3i           newPosition    = new Point3i();
+    protected long                    nextStep;
+    protected Vector3i                nextVelocity   = new Vector3i();
+    protected long                    notices;
+    protected final Point3i           oldPosition    = new Point3i();
+    protected RandomStream            random         = new RandomStream(666, 0);
     protected double                  randomChange;
-    protected double                  slowDown = 0.05;
+    protected final Vector3i          scratch        = new Vector3i();
+    protected double                  slowDown       = 0.05;
+    protected int                     speciesId;
+    protected int                     stride         = 1;
+    protected long                    tickTime;
 
     protected Vector3i velocity = new Vector3i();
 
@@ -58,6 +85,34 @@ abstract public class BoidImpl<Flock extends Perceiving> implements Boid<Flock>
         this.god = god;
     }
 
+    /**
+     * The second phase of a step: adopt the velocity computed by {@link #steer()}
+     * and move, notifying our neighbors. Commits must be performed in a
+     * deterministic order on the simulation thread.
+     */
+    @NonEvent
+    public void commit() {
+        Vector3i newVelocity = nextVelocity;
+        nextVelocity = velocity;
+        velocity = newVelocity;
+        updatePosition();
+        pace();
+    }
+
+    /**
+     * Count off a tick. Quiet boids are stepped less often than every tick.
+     *
+     * @return true if we are to be stepped this tick
+     */
+    @NonEvent
+    public boolean dueThisTick() {
+        if (delay > 0) {
+            delay--;
+            return false;
+        }
+        return true;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -70,23 +125,172 @@ abstract public class BoidImpl<Flock extends Perceiving> implements Boid<Flock>
 
     @Override
     public void fade(Perceiving neighbor) {
+        FadeEvent event = null;
+        if (FADE.isEnabled()) {
+            event = new FadeEvent();
+            event.begin();
+        }
+        fades++;
         if (equals(neighbor)) {
             System.out.println("*****");
         }
         behavior.fade(neighbor);
+        if (event != null) {
+            event.complete(id, getSpecies(), behavior.getFlockSize());
+        }
+    }
+
+    @NonEvent
+    public Animation getAnimation() {
+        return animation;
+    }
+
+    @NonEvent
+    public FlockingBehavior<Flock> getBehavior() {
+        return behavior;
+    }
+
+    /**
+     * @return the number of ticks until our next step
+     */
+    @NonEvent
+    public int getDelay() {
+        return delay;
+    }
+
+    /**
+     * @return the number of fade events delivered to this boid
+     */
+    @NonEvent
+    public long getFades() {
+        return fades;
+    }
+
+    @NonEvent
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return the number of move events delivered to this boid
+     */
+    @NonEvent
+    public long getMoves() {
+        return moves;
+    }
+
+    /**
+     * @return the number of notice events delivered to this boid
+     */
+    @NonEvent
+    public long getNotices() {
+        return notices;
+    }
+
+    /**
+     * @return the stream of our random moves
+     */
+    @NonEvent
+    public RandomStream getRandom() {
+        return random;
+    }
+
+    @Override
+    @NonEvent
+    public int getSpeciesId() {
+        return speciesId;
+    }
+
+    /**
+     * @return the number of ticks each of our steps covers
+     */
+    @NonEvent
+    public int getStride() {
+        return stride;
+    }
+
+    @NonEvent
+    public Vector3i getVelocity() {
+        return velocity;
     }
 
     @Override
     public void move(Perceiving neighbor, Point3i location, Vector3i velocity) {
+        MoveEvent event = null;
+        if (MOVE.isEnabled()) {
+            event = new MoveEvent();
+            event.begin();
+        }
+        moves++;
         if (equals(neighbor)) {
             System.out.println("*****");
         }
         behavior.move(neighbor, location, velocity);
+        if (event != null) {
+            event.complete(id, getSpecies(), behavior.getFlockSize());
+        }
     }
 
     @Override
     public void notice(Perceiving neighbor, Point3i location) {
+        NoticeEvent event = null;
+        if (NOTICE.isEnabled()) {
+            event = new NoticeEvent();
+            event.begin();
+        }
+        notices++;
+        stride = 1;
+        delay = 0;
         behavior.notice(neighbor, location);
+        if (event != null) {
+            event.complete(id, getSpecies(), behavior.getFlockSize());
+        }
+        if (tickTime > 0 && nextStep > Kronos.currentTime() + tickTime) {
+            schedule(1);
+        }
+    }
+
+    /**
+     * Become a newborn with the id, as when a dead boid is recycled: forget the
+     * flock, restart our random stream, pace and event counts. The cursor is
+     * moved and rejoined separately. A step scheduled in our previous life finds
+     * our generation changed, and does nothing.
+     */
+    @NonEvent
+    public void reborn(int id, long seed, Vector3i velocity) {
+        generation++;
+        this.id = id;
+        this.velocity.set(velocity);
+        nextVelocity.set(0, 0, 0);
+        random.reset(seed, id);
+        behavior.clear();
+        stride = 1;
+        delay = 0;
+        tickTime = 0;
+        nextStep = 0;
+        fades = 0;
+        moves = 0;
+        notices = 0;
+    }
+
+    /**
+     * Stop stepping ourselves; a step already scheduled does nothing
+     */
+    @NonEvent
+    public void retire() {
+        nextStep = -1;
+    }
+
+    /**
+     * While we are cruising, with flock mates but no predators, prey or target,
+     * each step covers this many ticks, up to the maximum stride
+     */
+    @NonEvent
+    public void setCruisingStride(int cruisingStride) {
+        if (cruisingStride < 1) {
+            throw new IllegalArgumentException("Cruising stride must be at least 1");
+        }
+        this.cruisingStride = cruisingStride;
     }
 
     @Override
@@ -94,6 +298,48 @@ abstract public class BoidImpl<Flock extends Perceiving> implements Boid<Flock>
         this.locator = locator;
     }
 
+    @NonEvent
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    /**
+     * While we are quiet, with no one in our area of interest, double the ticks
+     * each step covers, up to the maximum. Anything noticed brings us back to a
+     * step every tick.
+     *
+     * @param maximumStride - the most ticks a step may cover, 1 to step every
+     *                      tick
+     */
+    @NonEvent
+    public void setMaximumStride(int maximumStride) {
+        if (maximumStride < 1) {
+            throw new IllegalArgumentException("Maximum stride must be at least 1");
+        }
+        this.maximumStride = maximumStride;
+    }
+
+    /**
+     * Resume stepping at the stride, after the delay, as when restoring a
+     * checkpoint
+     */
+    @NonEvent
+    public void setPace(int stride, int delay) {
+        if (stride < 1 || delay < 0 || delay >= stride) {
+            throw new IllegalArgumentException("Invalid stride and delay: " + stride + ", " + delay);
+        }
+        this.stride = stride;
+        this.delay = delay;
+    }
+
+    /**
+     * Draw our random moves from the stream, which must be ours alone
+     */
+    @NonEvent
+    public void setRandom(RandomStream random) {
+        this.random = random;
+    }
+
     @NonEvent
     public void setRandomChange(double randomChange) {
         if (randomChange < 0.0 || randomChange > 1.0) {
@@ -107,6 +353,42 @@ abstract public class BoidImpl<Flock extends Perceiving> implements Boid<Flock>
         this.slowDown = slowDown;
     }
 
+    @NonEvent
+    public void setSpeciesId(int speciesId) {
+        this.speciesId = speciesId;
+    }
+
+    /**
+     * Step ourselves from now on, rather than be stepped every tick by the
+     * simulation. Each step schedules the next, as many ticks later as our
+     * stride, so only the boids with something to do are stepped.
+     *
+     * @param tickTime - the simulated time of a tick
+     */
+    @NonEvent
+    public void startStepping(long tickTime) {
+        if (tickTime <= 0) {
+            throw new IllegalArgumentException("Tick time must be positive");
+        }
+        this.tickTime = tickTime;
+        nextStep = Kronos.currentTime();
+        step();
+    }
+
+    /**
+     * The first phase of a step: compute the new velocity from our current state
+     * and what we know of our neighbors. Steering touches no state but our own,
+     * including our random stream, and posts no events, so the boids of a tick
+     * may be steered concurrently.
+     */
+    @NonEvent
+    public void steer() {
+        nextVelocity.set(velocity);
+        behavior.addFlockingVector(locator.getLocation(), velocity, maximumSpeed, nextVelocity);
+        nextVelocity.add(boundPosition(locator.getLocation(), scratch));
+        nextVelocity.add(getRandomVector(locator.getLocation(), scratch));
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -114,12 +396,29 @@ abstract public class BoidImpl<Flock extends Perceiving> implements Boid<Flock>
      */
     @Override
     public void step() {
-        Vector3i newVelocity = new Vector3i(velocity);
-        newVelocity.add(behavior.getFlockingVector(locator.getLocation(), velocity, maximumSpeed));
-        newVelocity.add(boundPosition(locator.getLocation()));
-        newVelocity.add(getRandomVector(locator.getLocation()));
-        velocity = newVelocity;
-        updatePosition();
+        if (tickTime > 0 && Kronos.currentTime() != nextStep) {
+            return; // superseded by an earlier step, or retired
+        }
+        takeStep();
+    }
+
+    /**
+     * A step we scheduled ourselves, in the generation we were then in
+     */
+    public void step(int generation) {
+        if (generation != this.generation || Kronos.currentTime() != nextStep) {
+            return; // from a previous life, superseded by an earlier step, or retired
+        }
+        takeStep();
+    }
+
+    /**
+     * Compute the new velocity and move. The velocity is double buffered and all
+     * intermediate vectors are scratch, so advancing does not allocate.
+     */
+    protected void advance() {
+        steer();
+        commit();
     }
 
     /**
@@ -127,20 +426,37 @@ abstract public class BoidImpl<Flock extends Perceiving> implements Boid<Flock>
      * @return the vector required to keep within the field bounds
      */
     protected Vector3i boundPosition(Point3i position) {
-        Vector3i vector = new Vector3i();
+        return boundPosition(position, new Vector3i());
+    }
+
+    /**
+     * @param position
+     * @param result   - the vector to store the result in
+     * @return the result, set to the vector required to keep within the field
+     *         bounds
+     */
+    protected Vector3i boundPosition(Point3i position, Vector3i result) {
+        result.set(0, 0, 0);
         int boundaryDistance = 10 * maximumSpeed;
         int delta = maximumSpeed / 4;
         if (position.x < boundaryDistance) {
-            vector.x = delta;
+            result.x = delta;
         } else if (position.x > field.x - boundaryDistance) {
-            vector.x = -delta;
+            result.x = -delta;
         }
         if (position.y < boundaryDistance) {
-            vector.y = delta;
+            result.y = delta;
         } else if (position.y > field.y - boundaryDistance) {
-            vector.y = -delta;
+            result.y = -delta;
         }
-        return vector;
+        if (field.z > 0) {
+            if (position.z < boundaryDistance) {
+                result.z = delta;
+            } else if (position.z > field.z - boundaryDistance) {
+                result.z = -delta;
+            }
+        }
+        return result;
     }
 
     protected int getMaximumSpeed() {
@@ -148,21 +464,94 @@ abstract public class BoidImpl<Flock extends Perceiving> implements Boid<Flock>
     }
 
     protected Vector3i getRandomVector(Point3i currentPosition) {
-        Vector3i vector = new Vector3i(RANDOM.nextInt(maximumSpeed * 2) - maximumSpeed,
-                                       RANDOM.nextInt(maximumSpeed * 2) - maximumSpeed,
-                                       RANDOM.nextInt(maximumSpeed * 2) - maximumSpeed);
-        vector.scale(randomChange);
-        return vector;
+        return getRandomVector(currentPosition, new Vector3i());
+    }
+
+    protected Vector3i getRandomVector(Point3i currentPosition, Vector3i result) {
+        int x = random.nextInt(maximumSpeed * 2) - maximumSpeed;
+        int y = random.nextInt(maximumSpeed * 2) - maximumSpeed;
+        int z = random.nextInt(maximumSpeed * 2) - maximumSpeed;
+        result.set(x, y, z);
+        result.scale(randomChange);
+        return result;
+    }
+
+    /**
+     * @return the species name recorded in flight recorder events
+     */
+    protected String getSpecies() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * @return true if we know of nothing but flock mates
+     */
+    protected boolean isCruising() {
+        return behavior.isCalm();
+    }
+
+    /**
+     * @return true if there is nothing in our area of interest to respond to
+     */
+    protected boolean isQuiet() {
+        return behavior.isAlone();
+    }
+
+    /**
+     * Choose the stride of our next step, once this one is committed: doubling
+     * while quiet, the cruising stride while cruising, and every tick while
+     * fleeing or hunting
+     */
+    protected void pace() {
+        if (maximumStride == 1) {
+            return;
+        }
+        if (isQuiet()) {
+            stride = Math.min(stride * 2, maximumStride);
+        } else if (isCruising()) {
+            stride = Math.min(cruisingStride, maximumStride);
+        } else {
+            stride = 1;
+        }
+        delay = stride - 1;
+    }
+
+    /**
+     * Schedule our next step, the ticks from now. Events posted after the sleep
+     * are posted at the later time, so this must be the last thing an event does.
+     */
+    protected void schedule(int ticks) {
+        long interval = ticks * tickTime;
+        nextStep = Kronos.currentTime() + interval;
+        Kronos.sleep(interval);
+        step(generation);
+    }
+
+    protected void takeStep() {
+        StepEvent event = null;
+        if (STEP.isEnabled()) {
+            event = new StepEvent();
+            event.begin();
+        }
+        advance();
+        if (event != null) {
+            event.complete(id, getSpecies(), behavior.getFlockSize());
+        }
+        if (tickTime > 0) {
+            schedule(stride);
+        }
     }
 
     protected void updatePosition() {
-        velocity.z = 0;
+        if (field.z == 0) {
+            velocity.z = 0;
+        }
         if (velocity.length() > getMaximumSpeed()) {
             velocity.normalizeTo(getMaximumSpeed());
         }
-        Point3i oldPosition = new Point3i(locator.getLocation());
-        Point3i newPosition = locator.getLocation();
-        newPosition.add(velocity);
+        oldPosition.set(locator.getLocation());
+        newPosition.set(oldPosition.x + velocity.x * stride, oldPosition.y + velocity.y * stride,
+                        oldPosition.z + velocity.z * stride);
 
         if (newPosition.x < 50 && newPosition.x < oldPosition.x) {
             // newPosition.x = 50;
@@ -180,6 +569,14 @@ abstract public class BoidImpl<Flock extends Perceiving> implements Boid<Flock>
             velocity.y -= getMaximumSpeed() / 5;
         }
 
+        if (field.z > 0) {
+            if (newPosition.z < 50 && newPosition.z < oldPosition.z) {
+                velocity.z += getMaximumSpeed() / 5;
+            } else if (newPosition.z > field.z - 50 && newPosition.z > oldPosition.z) {
+                velocity.z -= getMaximumSpeed() / 5;
+            }
+        }
+
         if (velocity.length() > getMaximumSpeed()) {
             velocity.normalizeTo(getMaximumSpeed());
         }
@@ -189,7 +586,11 @@ abstract public class BoidImpl<Flock extends Perceiving> implements Boid<Flock>
          * velocity.x / scale; scale = Math.max(Math.abs(velocity.y) * slowDown, 0.01);
          * velocity.y -= velocity.y / scale;
          */
-        locator.moveBy(velocity);
+        // our neighbors take the vector we move by as our velocity, so a step of
+        // several ticks is that many moves of our velocity
+        for (int i = 0; i < stride; i++) {
+            locator.moveBy(velocity);
+        }
         animation.update(locator.getLocation());
     }
 }
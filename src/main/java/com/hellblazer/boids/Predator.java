@@ -17,12 +17,14 @@
 
 package com.hellblazer.boids;
 
-import java.util.Map;
-
 import javax.vecmath.Point3i;
 
+import jdk.jfr.EventType;
+
 import com.hellblazer.boids.behavior.PredatorPack;
+import com.hellblazer.boids.jfr.KillEvent;
 import com.hellblazer.geometry.Vector3i;
+import com.hellblazer.primeMover.annotations.NonEvent;
 import com.hellblazer.thoth.Perceiving;
 
 /**
@@ -32,9 +34,12 @@ import com.hellblazer.thoth.Perceiving;
  */
 
 public class Predator<F extends Boid<?>, P extends Boid<?>> extends BoidImpl<F> {
+    private static final EventType KILL = EventType.getEventType(KillEvent.class);
+
     protected PredatorPack<F, P> behavior;
     protected int                catchDistance;
     protected int                maximumChaseSpeed;
+    protected P                  kill;
     protected int                seekRadius;
     protected int                stamina;
     protected P                  target;
@@ -48,6 +53,17 @@ public class Predator<F extends Boid<?>, P extends Boid<?>> extends BoidImpl<F>
         this.maximumChaseSpeed = maximumChaseSpeed;
     }
 
+    @Override
+    @NonEvent
+    public void commit() {
+        if (kill != null) {
+            P eaten = kill;
+            kill = null;
+            eaten.eatenBy(this);
+        }
+        super.commit();
+    }
+
     @Override
     public void fade(Perceiving neighbor) {
         if (neighbor.equals(target)) {
@@ -56,8 +72,38 @@ public class Predator<F extends Boid<?>, P extends Boid<?>> extends BoidImpl<F>
         super.fade(neighbor);
     }
 
+    @NonEvent
+    public int getStamina() {
+        return stamina;
+    }
+
+    @NonEvent
+    public P getTarget() {
+        return target;
+    }
+
     @Override
-    public void step() {
+    @NonEvent
+    public void reborn(int id, long seed, Vector3i velocity) {
+        super.reborn(id, seed, velocity);
+        kill = null;
+        stamina = 0;
+        target = null;
+    }
+
+    /**
+     * Restore the chase from a checkpoint. The target is only taken up again if
+     * it is among the prey we know of.
+     */
+    @NonEvent
+    public void restore(int stamina, P target) {
+        this.stamina = stamina;
+        this.target = target != null && behavior.getPosition(target) != null ? target : null;
+    }
+
+    @Override
+    @NonEvent
+    public void steer() {
         if (target != null) {
             pursueTarget(behavior.getPosition(target));
         } else {
@@ -69,25 +115,22 @@ public class Predator<F extends Boid<?>, P extends Boid<?>> extends BoidImpl<F>
                 stamina = 100;
                 pursueTarget(behavior.getPosition(target));
             } else {
-                super.step();
+                super.steer();
             }
         }
     }
 
     protected boolean closeForKill(Point3i targetLocation) {
-        Vector3i distance = new Vector3i(locator.getLocation());
-        distance.sub(targetLocation);
-        return distance.length() <= catchDistance;
+        scratch.set(locator.getLocation());
+        scratch.sub(targetLocation);
+        return scratch.length() <= catchDistance;
     }
 
+    /**
+     * Target the nearest prey within the seek radius, if any
+     */
     protected void findTarget() {
-        for (Map.Entry<P, Point3i> entry : behavior.getPrey().entrySet()) {
-            Vector3i distance = new Vector3i(locator.getLocation());
-            distance.sub(entry.getValue());
-            if (distance.length() <= seekRadius) {
-                target = entry.getKey();
-            }
-        }
+        target = behavior.getNearestPrey(locator.getLocation(), seekRadius);
     }
 
     @Override
@@ -100,33 +143,55 @@ public class Predator<F extends Boid<?>, P extends Boid<?>> extends BoidImpl<F>
     }
 
     protected Vector3i getPursuitVector() {
-        Vector3i vector = new Vector3i(behavior.getPosition(target));
-        vector.sub(locator.getLocation());
-        vector.normalizeTo(maximumChaseSpeed);
-        return vector;
+        return getPursuitVector(new Vector3i());
     }
 
+    protected Vector3i getPursuitVector(Vector3i result) {
+        result.set(behavior.getPosition(target));
+        result.sub(locator.getLocation());
+        result.normalizeTo(maximumChaseSpeed);
+        return result;
+    }
+
+    @Override
+    protected boolean isCruising() {
+        return super.isCruising() && target == null;
+    }
+
+    @Override
+    protected boolean isQuiet() {
+        return super.isQuiet() && target == null;
+    }
+
+    /**
+     * Steer towards the target, or give up the chase. A kill is only recorded
+     * here; the prey is eaten when the step is committed.
+     *
+     * @param targetLocation
+     */
     protected void pursueTarget(Point3i targetLocation) {
         stamina -= 1;
         if (closeForKill(targetLocation)) {
-            target.eatenBy(this);
+            if (KILL.isEnabled()) {
+                KillEvent event = new KillEvent();
+                event.begin();
+                event.preyId = target instanceof BoidImpl<?> prey ? prey.getId() : -1;
+                event.complete(id, getSpecies(), behavior.getFlockSize());
+            }
+            kill = target;
             target = null;
-            super.step();
+            super.steer();
         } else {
             if (stamina < 1) {
                 target = null;
-                super.step();
+                super.steer();
             } else {
-                Vector3i delta = new Vector3i();
-                Vector3i boundPosition = boundPosition(locator.getLocation());
-                Vector3i pursuitVector = getPursuitVector();
-                delta.add(boundPosition);
-                delta.add(pursuitVector);
-                velocity.add(delta);
-                if (velocity.length() > maximumChaseSpeed) {
-                    velocity.normalizeTo(maximumChaseSpeed);
+                nextVelocity.set(velocity);
+                nextVelocity.add(boundPosition(locator.getLocation(), scratch));
+                nextVelocity.add(getPursuitVector(scratch));
+                if (nextVelocity.length() > maximumChaseSpeed) {
+                    nextVelocity.normalizeTo(maximumChaseSpeed);
                 }
-                updatePosition();
             }
         }
     }
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.hellblazer.boids;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * A counter based random number generator. The nth number of a stream is the
+ * SplitMix64 mix of the stream's key advanced n times by the golden gamma, so
+ * the whole state of a stream is its key and the number of draws made from it.
+ * <p>
+ * Each boid has its own stream, keyed by the run's seed and the boid's id.
+ * Streams share nothing, so boids may draw from them concurrently and in any
+ * order, and a run is the same whatever the number of threads stepping it.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class RandomStream implements RandomGenerator {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /**
+     * The SplitMix64 finalizer
+     */
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private long draws;
+    private long key;
+
+    public RandomStream(long seed, long id) {
+        this.key = mix(seed ^ mix(id + GOLDEN_GAMMA));
+    }
+
+    /**
+     * @return the number of longs drawn from the stream
+     */
+    public long getDraws() {
+        return draws;
+    }
+
+    @Override
+    public long nextLong() {
+        return mix(key + ++draws * GOLDEN_GAMMA);
+    }
+
+    /**
+     * Become the stream of another id, from its first draw, as when a dead boid
+     * is recycled as a newborn
+     */
+    public void reset(long seed, long id) {
+        key = mix(seed ^ mix(id + GOLDEN_GAMMA));
+        draws = 0;
+    }
+
+    /**
+     * Position the stream after the given number of draws, as when restoring a
+     * checkpoint
+     */
+    public void setDraws(long draws) {
+        this.draws = draws;
+    }
+}
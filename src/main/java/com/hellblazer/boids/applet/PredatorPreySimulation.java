@@ -18,35 +18,40 @@
 package com.hellblazer.boids.applet;
 
 import java.awt.Color;
+import java.awt.DisplayMode;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.HeadlessException;
 import java.awt.Image;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.UUID;
 
 import javax.swing.JFrame;
 import javax.vecmath.Point3i;
 
 import com.hellblazer.boids.Animation;
 import com.hellblazer.boids.BoidImpl;
-import com.hellblazer.boids.God;
-import com.hellblazer.boids.Predator;
-import com.hellblazer.boids.Prey;
-import com.hellblazer.boids.behavior.FlockingPrey;
-import com.hellblazer.boids.behavior.PredatorPack;
+import com.hellblazer.boids.engine.Parameters;
+import com.hellblazer.boids.engine.Simulation;
+import com.hellblazer.boids.engine.SimulationDriver;
+import com.hellblazer.boids.engine.Snapshot;
+import com.hellblazer.boids.engine.TickMetrics.Phase;
+import com.hellblazer.boids.record.FrameServer;
+import com.hellblazer.boids.record.TrajectoryRecorder;
+import com.hellblazer.boids.render.RasterRenderer;
 import com.hellblazer.geometry.Vector3i;
-import com.hellblazer.primeMover.Kronos;
-import com.hellblazer.primeMover.controllers.SteppingController;
-import com.hellblazer.primeMover.runtime.Framework;
-import com.hellblazer.thoth.Perceiving;
 import com.hellblazer.thoth.impl.Perceptron;
 
 /**
@@ -55,26 +60,14 @@ import com.hellblazer.thoth.impl.Perceptron;
  * 
  */
 
-public class PredatorPreySimulation extends JFrame implements KeyListener, MouseListener, God {
+public class PredatorPreySimulation extends JFrame implements KeyListener, MouseListener {
     class RefreshTask extends TimerTask {
 
         @Override
         public void run() {
-            Framework.setController(controller);
-            synchronized (sync) {
-                Kronos.sleep(1000);
+            synchronized (simulation.getSync()) {
                 if (next_ready) {
-                    for (Perceptron<BoidImpl<?>> p : predators.keySet()) {
-                        p.getSim().step();
-                    }
-                    for (Perceptron<BoidImpl<?>> p : prey.keySet()) {
-                        p.getSim().step();
-                    }
-                    try {
-                        controller.step();
-                    } catch (Throwable e) {
-                        throw new IllegalStateException("Unable to step controller", e);
-                    }
+                    simulation.tick();
                     next_ready = false;
                     repaint();
                 }
@@ -85,102 +78,92 @@ public class PredatorPreySimulation extends JFrame implements KeyListener, Mouse
         }
     }
 
-    protected static final Point3i field;
-    protected static final int     scale            = 100;
-    protected static int           x                = 1500;
-    protected static int           y                = 1000;
-    private static final long      serialVersionUID = 1L;
-    static {
-        field = new Point3i(x * scale, y * scale, 0);
-    }
+    private static final int  KEYFRAME_INTERVAL = 100;
+    private static final long serialVersionUID  = 1L;
 
+    /**
+     * <pre>
+     * PredatorPreySimulation [--decoupled] [--record directory] [--serve port]
+     * </pre>
+     *
+     * When decoupled, the simulation free runs on its own thread and the display
+     * rasterizes the latest published snapshot at the display's refresh rate.
+     * Recording the trajectories, or serving the frames to remote viewers,
+     * implies decoupling.
+     */
     public static void main(String[] args) {
         var sim = new PredatorPreySimulation();
+        List<String> arguments = Arrays.asList(args);
+        sim.decoupled = arguments.contains("--decoupled");
+        int record = arguments.indexOf("--record");
+        if (record >= 0 && record + 1 < args.length) {
+            sim.recording = Path.of(args[record + 1]);
+            sim.decoupled = true;
+        }
+        int serve = arguments.indexOf("--serve");
+        if (serve >= 0 && serve + 1 < args.length) {
+            sim.serving = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[serve + 1]));
+            sim.decoupled = true;
+        }
         sim.setSize(400, 600);
         sim.init();
         sim.setVisible(true);
         sim.start();
     }
 
-    protected SteppingController                      controller;
-    protected int                                     delay                        = 1000 / 45;
-    protected int                                     maximumPredatorFlockDistance = 100 * scale;
-    protected int                                     maximumPreyFlockDistance     = 20 * scale;
-    protected int                                     maxPredatorSpeed             = 3 * scale;
-    protected int                                     maxPreditorChaseSpeed        = 5 * scale;
-    protected int                                     maxPreySpeed                 = 4 * scale;
-    protected boolean                                 next_ready                   = true;
-    protected int                                     numOfPredators               = 2;
-    protected int                                     numOfPrey                    = 24;
-    protected Graphics2D                              offGraphics;
-    protected Image                                   offImage;
-    protected int                                     predatorAoiRadius            = 200 * scale;
-    protected int                                     predatorCatchDistance        = 5 * scale;
-    protected double                                  predatorCohesionChange       = 0.0001;
-    protected double                                  predatorFleeChange           = 0.04;
-    protected double                                  predatorHuntChange           = 0.01;
-    protected double                                  predatorRandomChange         = 0.0;
-    protected double                                  predatorRepellerChange       = 0.001;
-    protected Map<Perceptron<BoidImpl<?>>, Animation> predators                    = new HashMap<Perceptron<BoidImpl<?>>, Animation>();
-    protected int                                     predatorSeekRadius           = 100 * scale;
-    protected double                                  predatorVeocityMatchChange   = 0.001;
-    protected Map<Perceptron<BoidImpl<?>>, Animation> prey                         = new HashMap<Perceptron<BoidImpl<?>>, Animation>();
-    protected int                                     preyAoiRadius                = 100 * scale;
-    protected double                                  preyCohesionChange           = 0.002;
-    protected double                                  preyRandomChange             = 0.003;
-    protected double                                  preyRepellerChange           = 0.002;
-    protected int                                     preyScareDistance            = 80 * scale;
-    protected double                                  preyVeocityMatchChange       = 0.002;
-    protected Random                                  random;
-    protected Perceptron<BoidImpl<?>>                 selected;
-    protected boolean                                 showAoi                      = true;
-    protected boolean                                 showEdges                    = true;
-    protected boolean                                 step_mode                    = true;
-    protected final Object                            sync                         = new Object();
-    protected Timer                                   timer;
-    protected RefreshTask                             updateTask;
-
-    @Override
-    public void died(Perceiving dead) {
-        Perceptron<BoidImpl<?>> deadPerceptron = null;
-        synchronized (sync) {
-            for (Perceptron<BoidImpl<?>> perceptron : prey.keySet()) {
-                if (dead.equals(perceptron.getSim())) {
-                    deadPerceptron = perceptron;
-                    break;
-                }
-            }
-            if (deadPerceptron != null) {
-                deadPerceptron.leave();
-                prey.remove(deadPerceptron);
-            }
+    /**
+     * @return the display refresh rate, in Hz
+     */
+    protected static int refreshRate() {
+        try {
+            int rate = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                                          .getDefaultScreenDevice()
+                                          .getDisplayMode()
+                                          .getRefreshRate();
+            return rate == DisplayMode.REFRESH_RATE_UNKNOWN ? 60 : rate;
+        } catch (HeadlessException e) {
+            return 60;
         }
     }
 
+    protected boolean                 decoupled;
+    protected int                     delay      = 1000 / 45;
+    protected SimulationDriver        driver;
+    protected Point3i                 field;
+    protected javax.swing.Timer       frameTimer;
+    protected boolean                 next_ready = true;
+    protected Graphics2D              offGraphics;
+    protected Image                   offImage;
+    protected Parameters              parameters = new Parameters();
+    protected TrajectoryRecorder      recorder;
+    protected Path                    recording;
+    protected RasterRenderer          renderer;
+    protected int                     scale;
+    protected Perceptron<BoidImpl<?>> selected;
+    protected FrameServer             server;
+    protected InetSocketAddress       serving;
+    protected boolean                 showAoi    = true;
+    protected boolean                 showEdges  = true;
+    protected Simulation              simulation;
+    protected boolean                 step_mode  = true;
+    protected Timer                   timer;
+    protected RefreshTask             updateTask;
+    protected int                     x;
+    protected int                     y;
+
     public void init() {
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         var window = getContentPane();
-        controller = new SteppingController();
-        Framework.setController(controller);
-        controller.setCurrentTime(0);
-        random = new Random(667);
+        scale = parameters.scale;
+        x = parameters.width;
+        y = parameters.height;
+        field = parameters.field();
+        simulation = new Simulation(parameters);
+        simulation.getMetrics().register("display");
         setSize(field.x / scale, field.y / scale);
         setBackground(Color.white);
         setForeground(Color.black);
-
-        Perceptron<?> gateway = null;
-        for (int i = 0; i < numOfPrey; i++) {
-            Perceptron<BoidImpl<?>> boid = makePrey(i);
-            if (i == 0) {
-                gateway = boid;
-            }
-            boid.join(gateway);
-        }
-
-        for (int i = 0; i < numOfPredators; i++) {
-            Perceptron<BoidImpl<?>> boid = makePredator(i + numOfPrey);
-            boid.join(gateway);
-        }
+        simulation.init();
 
         // preyAnim.get(0).setSelected(true);
         addKeyListener(this);
@@ -199,6 +182,9 @@ public class PredatorPreySimulation extends JFrame implements KeyListener, Mouse
         case 32:
             if (step_mode == true) {
                 next_ready = true;
+                if (driver != null) {
+                    driver.step();
+                }
             } else {
                 step_mode = true;
             }
@@ -219,6 +205,9 @@ public class PredatorPreySimulation extends JFrame implements KeyListener, Mouse
         case 81:
             break;
         }
+        if (driver != null) {
+            driver.setPaused(step_mode);
+        }
         if (keyCode >= 37 && keyCode <= 40 && !step_mode) {
             return;
         }
@@ -250,45 +239,50 @@ public class PredatorPreySimulation extends JFrame implements KeyListener, Mouse
         if (e.getButton() != MouseEvent.BUTTON1) {
             return;
         }
-        for (Perceptron<BoidImpl<?>> perceptron : prey.keySet()) {
+        if (driver != null) {
+            renderer.setSelectedId(select(driver.getLatest(), e.getX() * scale, e.getY() * scale));
+            repaint();
+            return;
+        }
+        for (Perceptron<BoidImpl<?>> perceptron : simulation.getPrey().keySet()) {
             Vector3i distance = new Vector3i(perceptron.getLocation());
             distance.sub(new Point3i(e.getX() * scale, e.getY() * scale, 0));
             if (distance.length() < 10 * scale) {
                 if (selected != null) {
-                    if (prey.get(selected) != null) {
-                        prey.get(selected).setSelected(false);
+                    if (simulation.getPrey().get(selected) != null) {
+                        simulation.getPrey().get(selected).setSelected(false);
                     } else {
-                        predators.get(selected).setSelected(false);
+                        simulation.getPredators().get(selected).setSelected(false);
                     }
                 }
                 selected = perceptron;
-                prey.get(selected).setSelected(true);
+                simulation.getPrey().get(selected).setSelected(true);
                 repaint();
                 return;
             }
         }
-        for (Perceptron<BoidImpl<?>> perceptron : predators.keySet()) {
+        for (Perceptron<BoidImpl<?>> perceptron : simulation.getPredators().keySet()) {
             Vector3i distance = new Vector3i(perceptron.getLocation());
             distance.sub(new Point3i(e.getX() * scale, e.getY() * scale, 0));
             if (distance.length() < 10 * scale) {
                 if (selected != null) {
-                    if (prey.get(selected) != null) {
-                        prey.get(selected).setSelected(false);
+                    if (simulation.getPrey().get(selected) != null) {
+                        simulation.getPrey().get(selected).setSelected(false);
                     } else {
-                        predators.get(selected).setSelected(false);
+                        simulation.getPredators().get(selected).setSelected(false);
                     }
                 }
                 selected = perceptron;
-                predators.get(selected).setSelected(true);
+                simulation.getPredators().get(selected).setSelected(true);
                 repaint();
                 return;
             }
         }
         if (selected != null) {
-            if (prey.get(selected) != null) {
-                prey.get(selected).setSelected(false);
+            if (simulation.getPrey().get(selected) != null) {
+                simulation.getPrey().get(selected).setSelected(false);
             } else {
-                predators.get(selected).setSelected(false);
+                simulation.getPredators().get(selected).setSelected(false);
             }
             selected = null;
         }
@@ -300,12 +294,41 @@ public class PredatorPreySimulation extends JFrame implements KeyListener, Mouse
 
     @Override
     public void paint(Graphics g) {
-        if (offGraphics != null) {
+        if (driver != null) {
+            update(g);
+        } else if (offGraphics != null) {
             g.drawImage(offImage, 0, 0, null);
         }
     }
 
     public void start() {
+        if (decoupled) {
+            renderer = new RasterRenderer(x, y, scale, 5);
+            renderer.setBackground(getBackground().getRGB());
+            driver = new SimulationDriver(simulation);
+            driver.setPaused(step_mode);
+            if (recording != null) {
+                try {
+                    recorder = new TrajectoryRecorder(recording, simulation.getField());
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to record to " + recording, e);
+                }
+                driver.addListener(recorder);
+            }
+            if (serving != null) {
+                try {
+                    server = new FrameServer(serving, simulation.getField(), scale, KEYFRAME_INTERVAL);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to serve on " + serving, e);
+                }
+                driver.addListener(server);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "Shutdown"));
+            driver.start();
+            frameTimer = new javax.swing.Timer(1000 / refreshRate(), e -> repaint());
+            frameTimer.start();
+            return;
+        }
         timer = new java.util.Timer();
         updateTask = new RefreshTask();
         timer.schedule(updateTask, 0, delay);
@@ -313,89 +336,58 @@ public class PredatorPreySimulation extends JFrame implements KeyListener, Mouse
 
     @Override
     public void update(Graphics g) {
+        long start = System.nanoTime();
+        if (driver != null) {
+            g.drawImage(renderer.render(driver.getLatest()), 0, 0, null);
+            simulation.getMetrics().record(Phase.PAINT, start);
+            return;
+        }
         if (offGraphics == null) {
             offImage = createImage(x, y);
             offGraphics = (Graphics2D) offImage.getGraphics();
 
         }
-        synchronized (sync) {
+        synchronized (simulation.getSync()) {
             offGraphics.setColor(getBackground());
             offGraphics.fillRect(0, 0, x, y);
             offGraphics.setColor(Color.BLACK);
             offGraphics.drawRect(0, 0, x, y);
-            for (Animation anim : predators.values()) {
+            for (Animation anim : simulation.getPredators().values()) {
                 anim.draw(showEdges, showAoi, offGraphics);
             }
-            for (Animation anim : prey.values()) {
+            for (Animation anim : simulation.getPrey().values()) {
                 anim.draw(showEdges, showAoi, offGraphics);
             }
             g.drawImage(offImage, 0, 0, null);
-
+            simulation.getMetrics().record(Phase.PAINT, start);
         }
     }
 
-    protected Perceptron<BoidImpl<?>> createPerceptron(Point3i position, UUID id, BoidImpl<?> boid, int aoiRadius,
-                                                       int maximumSpeed) {
-        return new Perceptron<BoidImpl<?>>(boid, id, position, aoiRadius, maximumSpeed, true);
-    }
-
     /**
-     * @return
+     * @return the id of the boid in the snapshot close to the point, or -1
      */
-    @SuppressWarnings("unchecked")
-    protected Perceptron<BoidImpl<?>> makePredator(int num) {
-        Point3i position = new Point3i(random.nextInt(field.x), random.nextInt(field.y), 0);
-        Vector3i velocity = new Vector3i(maxPredatorSpeed - random.nextInt(maxPredatorSpeed) * 2,
-                                         maxPredatorSpeed - random.nextInt(maxPredatorSpeed) * 2, 0);
-        velocity.normalizeTo(maxPredatorSpeed);
-        PredatorPack<Predator<?, ?>, Prey<?, ?>> behavior = new PredatorPack<Predator<?, ?>, Prey<?, ?>>();
-        behavior.setFlockClass(Predator.class);
-        behavior.setPreyClass(Prey.class);
-        behavior.setCohesionChange(predatorCohesionChange);
-        behavior.setMaximumFlockDistance(maximumPredatorFlockDistance);
-        behavior.setRepellerChange(predatorRepellerChange);
-        behavior.setVelocityMatchChange(predatorVeocityMatchChange);
-        behavior.setHuntChange(predatorHuntChange);
-        Color color = new Color((int) (random.nextDouble() * 256 * 256 * 256));
-        Animation animation = new Animation(scale, 10 * scale, 10 * scale, color, 2);
-        @SuppressWarnings("rawtypes")
-        BoidImpl<?> predator = new Predator(behavior, velocity, maxPreySpeed, animation, field, predatorSeekRadius,
-                                            predatorCatchDistance, maxPreditorChaseSpeed, this);
-        predator.setRandomChange(predatorRandomChange);
-        @SuppressWarnings("rawtypes")
-        Perceptron perceptron = createPerceptron(position, new UUID(0, num), predator, predatorAoiRadius,
-                                                 maxPreditorChaseSpeed);
-        animation.setPerceptron(perceptron);
-        predator.setCursor(perceptron);
-        predators.put(perceptron, animation);
-        return perceptron;
+    protected int select(Snapshot snapshot, int px, int py) {
+        long limit = 10L * scale * 10L * scale;
+        for (int i = 0; i < snapshot.size(); i++) {
+            long dx = snapshot.getX(i) - px;
+            long dy = snapshot.getY(i) - py;
+            if (dx * dx + dy * dy < limit) {
+                return snapshot.getId(i);
+            }
+        }
+        return -1;
     }
 
-    @SuppressWarnings("unchecked")
-    protected Perceptron<BoidImpl<?>> makePrey(int num) {
-        Point3i position = new Point3i(random.nextInt(field.x), random.nextInt(field.y), 0);
-        Vector3i velocity = new Vector3i(maxPreySpeed - random.nextInt(maxPreySpeed) * 2,
-                                         maxPreySpeed - random.nextInt(maxPreySpeed) * 2, 0);
-        velocity.normalizeTo(maxPreySpeed);
-        FlockingPrey<Prey<?, ?>, Predator<?, ?>> behavior = new FlockingPrey<Prey<?, ?>, Predator<?, ?>>();
-        behavior.setFlockClass(Prey.class);
-        behavior.setPredatorClass(Predator.class);
-        behavior.setCohesionChange(preyCohesionChange);
-        behavior.setMaximumFlockDistance(maximumPreyFlockDistance);
-        behavior.setRepellerChange(preyRepellerChange);
-        behavior.setVelocityMatchChange(preyVeocityMatchChange);
-        behavior.setScareDistance(preyScareDistance);
-        behavior.setPredatorFleeChange(predatorFleeChange);
-        Color color = new Color((int) (random.nextDouble() * 256 * 256 * 256));
-        Animation animation = new Animation(scale, 5 * scale, 5 * scale, color, 1);
-        @SuppressWarnings("rawtypes")
-        BoidImpl<?> p = new Prey(behavior, velocity, maxPreySpeed, animation, field, this);
-        p.setRandomChange(preyRandomChange);
-        @SuppressWarnings("rawtypes")
-        Perceptron perceptron = createPerceptron(position, new UUID(0, num), p, preyAoiRadius, maxPredatorSpeed);
-        animation.setPerceptron(perceptron);
-        p.setCursor(perceptron);
-        prey.put(perceptron, animation);
-        return perceptron;
+    /**
+     * Stop the decoupled simulation and close its listeners, writing the ticks
+     * still queued for the recorder. Run on exit.
+     */
+    protected void shutdown() {
+        driver.stop();
+        try (TrajectoryRecorder trajectories = recorder; FrameServer frames = server) {
+            simulation.close();
+        } catch (IOException e) {
+            System.err.println("Unable to close: " + e);
+        }
     }
 }
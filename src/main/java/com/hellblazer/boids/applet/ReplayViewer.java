@@ -0,0 +1,227 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.hellblazer.boids.applet;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+import javax.swing.JComponent;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JSlider;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.vecmath.Point3i;
+
+import com.hellblazer.boids.engine.Parameters;
+import com.hellblazer.boids.record.TrajectoryReader;
+import com.hellblazer.boids.render.RasterRenderer;
+
+/**
+ * Replays a recorded trajectory. Nothing is simulated: each frame is read
+ * straight from the memory mapped recording and rasterized, so seeking to any
+ * tick of any size of run is immediate.
+ * <p>
+ * Space plays and pauses, left and right step a tick, up and down change the
+ * playback speed, and home and end seek to the start and the end. The slider
+ * scrubs.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class ReplayViewer extends JFrame implements KeyListener {
+    /**
+     * Playback speeds, as multiples of the rate the display runs the simulation
+     */
+    public static final double[]  SPEEDS           = { 0.25, 0.5, 1, 2, 4, 8, 16, 32, 64 };
+    protected static final int    SLIDER_RANGE     = 10_000;
+    protected static final double TICKS_PER_SECOND = 45;
+    private static final long     serialVersionUID = 1L;
+
+    /**
+     * <pre>
+     * ReplayViewer trajectory-directory
+     * </pre>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ReplayViewer <trajectory directory>");
+            System.exit(1);
+        }
+        var reader = new TrajectoryReader(Path.of(args[0]));
+        SwingUtilities.invokeLater(() -> {
+            var viewer = new ReplayViewer(reader);
+            viewer.setVisible(true);
+            viewer.start();
+        });
+    }
+
+    protected final JComponent       canvas;
+    protected long                   entry      = -1;
+    protected Timer                  frameTimer;
+    protected final int              fps;
+    protected boolean                playing;
+    protected double                 position;
+    protected final TrajectoryReader reader;
+    protected final RasterRenderer   renderer;
+    protected final JSlider          slider;
+    protected int                    speed      = 2;
+    protected final JLabel           status     = new JLabel();
+    protected boolean                updating;
+
+    public ReplayViewer(TrajectoryReader reader) {
+        super("Replay of " + reader.getDirectory());
+        this.reader = reader;
+        int scale = new Parameters().scale;
+        Point3i field = reader.getField();
+        renderer = new RasterRenderer(Math.max(1, field.x / scale), Math.max(1, field.y / scale), scale, 5);
+        fps = PredatorPreySimulation.refreshRate();
+        canvas = new JComponent() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void paintComponent(Graphics g) {
+                g.drawImage(renderer.getImage(), 0, 0, null);
+            }
+        };
+        canvas.setPreferredSize(new Dimension(renderer.getImage().getWidth(), renderer.getImage().getHeight()));
+        slider = new JSlider(0, (int) Math.max(0, Math.min(SLIDER_RANGE, reader.getTicks() - 1)), 0);
+        slider.setFocusable(false);
+        slider.addChangeListener(e -> {
+            if (!updating) {
+                seek(toEntry(slider.getValue()));
+            }
+        });
+        setDefaultCloseOperation(EXIT_ON_CLOSE);
+        getContentPane().add(canvas, BorderLayout.CENTER);
+        getContentPane().add(slider, BorderLayout.SOUTH);
+        getContentPane().add(status, BorderLayout.NORTH);
+        addKeyListener(this);
+        pack();
+    }
+
+    @Override
+    public void keyPressed(KeyEvent e) {
+        switch (e.getKeyCode()) {
+        case KeyEvent.VK_SPACE:
+            playing = !playing;
+            break;
+        case KeyEvent.VK_LEFT:
+            playing = false;
+            seek(entry - 1);
+            break;
+        case KeyEvent.VK_RIGHT:
+            playing = false;
+            seek(entry + 1);
+            break;
+        case KeyEvent.VK_UP:
+            speed = Math.min(SPEEDS.length - 1, speed + 1);
+            break;
+        case KeyEvent.VK_DOWN:
+            speed = Math.max(0, speed - 1);
+            break;
+        case KeyEvent.VK_HOME:
+            seek(0);
+            break;
+        case KeyEvent.VK_END:
+            seek(reader.getTicks() - 1);
+            break;
+        }
+        updateStatus();
+    }
+
+    @Override
+    public void keyReleased(KeyEvent e) {
+    }
+
+    @Override
+    public void keyTyped(KeyEvent e) {
+    }
+
+    /**
+     * Show the recorded entry, clamped to the recording
+     */
+    public void seek(long target) {
+        if (reader.getTicks() == 0) {
+            return;
+        }
+        target = Math.max(0, Math.min(reader.getTicks() - 1, target));
+        position = target;
+        if (target == entry) {
+            return;
+        }
+        if (target != entry + 1) {
+            renderer.clearTrails();
+        }
+        try {
+            renderer.render(reader.readEntry(target));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read entry " + target, e);
+        }
+        entry = target;
+        updating = true;
+        slider.setValue(toSlider(entry));
+        updating = false;
+        updateStatus();
+        canvas.repaint();
+    }
+
+    public void start() {
+        seek(0);
+        frameTimer = new Timer(1000 / fps, e -> advance());
+        frameTimer.start();
+    }
+
+    /**
+     * Advance the playback by a frame's worth of ticks, skipping any ticks that
+     * fall between frames
+     */
+    protected void advance() {
+        if (!playing) {
+            return;
+        }
+        double next = position + SPEEDS[speed] * TICKS_PER_SECOND / fps;
+        if ((long) next >= reader.getTicks() - 1) {
+            playing = false;
+        }
+        seek((long) next);
+        position = next;
+    }
+
+    protected long toEntry(int value) {
+        return slider.getMaximum() == 0 ? 0 : (reader.getTicks() - 1) * value / slider.getMaximum();
+    }
+
+    protected int toSlider(long entry) {
+        return reader.getTicks() <= 1 ? 0 : (int) (entry * slider.getMaximum() / (reader.getTicks() - 1));
+    }
+
+    protected void updateStatus() {
+        status.setText(String.format("tick %,d (%,d of %,d recorded)  %sx  %s",
+                                     entry < 0 ? 0 : reader.getTick(entry), entry + 1, reader.getTicks(),
+                                     SPEEDS[speed], playing ? "playing" : "paused"));
+    }
+}
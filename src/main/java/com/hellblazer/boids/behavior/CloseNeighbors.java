@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.hellblazer.boids.behavior;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.vecmath.Point3i;
+import javax.vecmath.Tuple3i;
+
+import com.hellblazer.thoth.Cursor;
+
+/**
+ * The flock mates within the separation radius of a boid, and the sum of their
+ * positions, maintained as the mates' moves are delivered rather than found by
+ * searching the flock. Thoth has a single area of interest per perceptron, so
+ * the inner radius is tracked here, as each mate enters and leaves it.
+ * <p>
+ * Membership is judged against where the owner is when a mate's move is
+ * delivered. Every boid moves every tick, and within a tick the moves are
+ * delivered after all the boids have committed, so at the end of each tick the
+ * set is exactly the mates within the radius. A mate that has stopped moving
+ * is judged against where the owner was when it last moved.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class CloseNeighbors<T> {
+    private final Map<T, Point3i> close = new HashMap<>();
+    private final Cursor          owner;
+    private final long            radiusSquared;
+    private final Point3i         sum   = new Point3i();
+
+    /**
+     * @param owner  - the cursor of the boid whose neighbors are tracked
+     * @param radius - the separation radius
+     */
+    public CloseNeighbors(Cursor owner, int radius) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("Radius must not be negative");
+        }
+        this.owner = owner;
+        this.radiusSquared = (long) radius * radius;
+    }
+
+    public void clear() {
+        close.clear();
+        sum.set(0, 0, 0);
+    }
+
+    /**
+     * @return the number of mates within the radius
+     */
+    public int getCount() {
+        return close.size();
+    }
+
+    public void remove(T mate) {
+        Point3i position = close.remove(mate);
+        if (position != null) {
+            sum.sub(position);
+        }
+    }
+
+    /**
+     * Add the positions of the mates within the radius to the sum
+     *
+     * @return the number of mates within the radius
+     */
+    public int sumWithin(Tuple3i result) {
+        result.add(sum);
+        return close.size();
+    }
+
+    /**
+     * The mate is now at the location; it enters, stays in or leaves the set
+     */
+    public void update(T mate, Point3i location) {
+        Point3i position = close.get(mate);
+        if (position != null) {
+            sum.sub(position);
+        }
+        if (!within(location)) {
+            if (position != null) {
+                close.remove(mate);
+            }
+            return;
+        }
+        if (position == null) {
+            position = new Point3i();
+            close.put(mate, position);
+        }
+        position.set(location);
+        sum.add(position);
+    }
+
+    private boolean within(Point3i location) {
+        Point3i center = owner.getLocation();
+        long dx = location.x - center.x;
+        long dy = location.y - center.y;
+        long dz = location.z - center.z;
+        return dx * dx + dy * dy + dz * dz <= radiusSquared;
+    }
+}
@@ -20,10 +20,12 @@ package com.hellblazer.boids.behavior;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Function;
 
 import javax.vecmath.Point3i;
 
 import com.hellblazer.geometry.Vector3i;
+import com.hellblazer.thoth.Cursor;
 import com.hellblazer.thoth.Perceiving;
 
 /**
@@ -34,6 +36,11 @@ import com.hellblazer.thoth.Perceiving;
 
 public class FlockingBehavior<Flock extends Perceiving> {
     public static class FlockState {
+        /**
+         * The velocity of a flock mate noticed, but not yet seen to move
+         */
+        private static final Vector3i UNKNOWN = new Vector3i();
+
         public final Point3i  position;
         public final Vector3i velocity;
 
@@ -41,23 +48,113 @@ public class FlockingBehavior<Flock extends Perceiving> {
             this.position = position;
             this.velocity = velocity;
         }
+
+        /**
+         * @return true if the flock mate has moved since it was noticed
+         */
+        public boolean isVelocityKnown() {
+            return velocity != UNKNOWN;
+        }
     }
 
-    protected double                 cohesionChange;
-    protected Map<Flock, FlockState> flock       = new HashMap<Flock, FlockState>();
-    protected Class<?>               flockClass;
-    protected int                    maximumFlockDistance;
-    protected Point3i                positionSum = new Point3i();
-    protected double                 repellerChange;
-    protected double                 velocityMatchChange;
+    protected CloseNeighbors<Flock>          close;
+    protected double                         cohesionChange;
+    protected final Vector3i                 delta        = new Vector3i();
+    protected Map<Flock, FlockState>         flock        = new HashMap<Flock, FlockState>();
+    protected Class<?>                       flockClass;
+    protected double                         huntChange;
+    protected SeparationKernel<Flock>        kernel;
+    protected int                            maximumFlockDistance;
+    protected Point3i                        positionSum  = new Point3i();
+    protected double                         predatorFleeChange;
+    protected final Map<Perceiving, Point3i> predators    = new HashMap<Perceiving, Point3i>();
+    protected final SpeciesSums              predatorSums = new SpeciesSums();
+    protected final Map<Perceiving, Point3i> prey         = new HashMap<Perceiving, Point3i>();
+    protected SpatialHash<Perceiving>        preyIndex;
+    protected final SpeciesSums              preySums     = new SpeciesSums();
+    protected SpeciesRegistry                registry;
+    protected double                         repellerChange;
+    protected int                            scareDistance;
+    protected final Vector3i                 scratch      = new Vector3i();
+    protected SpatialHash<Flock>             separation;
+    protected int                            species;
+    protected double                         velocityMatchChange;
 
     protected Vector3i velocitySum = new Vector3i();
 
+    /**
+     * Accumulate the velocity change necessary to maintain membership with the
+     * flock, without allocation
+     *
+     * @param currentPosition
+     * @param currentVelocity
+     * @param maximumSpeed
+     * @param result          - the vector the change is added to
+     */
+    public void addFlockingVector(Point3i currentPosition, Vector3i currentVelocity, int maximumSpeed,
+                                  Vector3i result) {
+        result.add(getCohesionVector(currentPosition, scratch));
+        result.sub(getRepellerVector(currentPosition, maximumSpeed, scratch));
+        result.sub(getVelocityMatchVector(currentVelocity, scratch));
+        if (!predators.isEmpty()) {
+            result.sub(getPredatorFleeVector(currentPosition, scratch));
+        }
+        if (!prey.isEmpty()) {
+            result.sub(getHuntVector(currentPosition, maximumSpeed, scratch));
+        }
+    }
+
+    /**
+     * Forget the flock, predators and prey, as when a dead boid is recycled as a
+     * newborn
+     */
+    public void clear() {
+        flock.clear();
+        positionSum.set(0, 0, 0);
+        velocitySum.set(0, 0, 0);
+        predators.clear();
+        predatorSums.clear();
+        prey.clear();
+        preySums.clear();
+        if (preyIndex != null) {
+            preyIndex.clear();
+        }
+        if (separation != null) {
+            separation.clear();
+        }
+        if (close != null) {
+            close.clear();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
     public void fade(Perceiving neighbor) {
+        Point3i lastPosition = predators.remove(neighbor);
+        if (lastPosition != null) {
+            predatorSums.remove(speciesOf(neighbor), lastPosition);
+            return;
+        }
+        lastPosition = prey.remove(neighbor);
+        if (lastPosition != null) {
+            preySums.remove(speciesOf(neighbor), lastPosition);
+            if (preyIndex != null) {
+                preyIndex.remove(neighbor);
+            }
+            return;
+        }
         FlockState previousState = flock.remove(neighbor);
         if (previousState != null) {
             positionSum.sub(previousState.position);
             velocitySum.sub(previousState.velocity);
+            if (separation != null) {
+                separation.remove(neighbor);
+            }
+            if (kernel != null) {
+                kernel.remove(neighbor);
+            }
+            if (close != null) {
+                close.remove((Flock) neighbor);
+            }
         }
     }
 
@@ -82,46 +179,214 @@ public class FlockingBehavior<Flock extends Perceiving> {
      */
     public Vector3i getFlockingVector(Point3i currentPosition, Vector3i currentVelocity, int maximumSpeed) {
         Vector3i vector = new Vector3i();
-        vector.add(getCohesionVector(currentPosition));
-        vector.sub(getRepellerVector(currentPosition, maximumSpeed));
-        vector.sub(getVelocityMatchVector(currentVelocity));
+        addFlockingVector(currentPosition, currentVelocity, maximumSpeed, vector);
         return vector;
     }
 
+    /**
+     * @return the number of known flock mates
+     */
+    public int getFlockSize() {
+        return flock.size();
+    }
+
     public FlockState getFlockState(Flock flockMate) {
         return flock.get(flockMate);
     }
 
+    public double getHuntChange() {
+        return huntChange;
+    }
+
     public int getMaximumFlockDistance() {
         return maximumFlockDistance;
     }
 
+    /**
+     * @param position
+     * @param radius
+     * @return the nearest known prey within the radius of the position, or null
+     *         if there is none
+     */
+    public Perceiving getNearestPrey(Point3i position, int radius) {
+        if (preyIndex != null) {
+            return preyIndex.nearest(position, radius);
+        }
+        long radiusSquared = (long) radius * radius;
+        long bestSquared = Long.MAX_VALUE;
+        Perceiving nearest = null;
+        for (Map.Entry<Perceiving, Point3i> entry : prey.entrySet()) {
+            Point3i p = entry.getValue();
+            long dx = (long) position.x - p.x;
+            long dy = (long) position.y - p.y;
+            long dz = (long) position.z - p.z;
+            long d = dx * dx + dy * dy + dz * dz;
+            if (d <= radiusSquared && d < bestSquared) {
+                bestSquared = d;
+                nearest = entry.getKey();
+            }
+        }
+        return nearest;
+    }
+
+    public double getPredatorFleeChange() {
+        return predatorFleeChange;
+    }
+
+    public SpeciesRegistry getRegistry() {
+        return registry;
+    }
+
     public double getRepellerChange() {
         return repellerChange;
     }
 
+    public int getScareDistance() {
+        return scareDistance;
+    }
+
+    public int getSpecies() {
+        return species;
+    }
+
     public double getVelocityMatchChange() {
         return velocityMatchChange;
     }
 
+    /**
+     * @return true if we know of no one to respond to
+     */
+    public boolean isAlone() {
+        return flock.isEmpty() && predators.isEmpty() && prey.isEmpty();
+    }
+
+    /**
+     * @return true if we know of no one but flock mates
+     */
+    public boolean isCalm() {
+        return predators.isEmpty() && prey.isEmpty();
+    }
+
     @SuppressWarnings("unchecked")
     public void move(Perceiving neighbor, Point3i location, Vector3i velocity) {
-        if (flockClass.isAssignableFrom(neighbor.getClass())) {
+        switch (interactionWith(neighbor)) {
+        case FLOCK:
             FlockState previousState = flock.put((Flock) neighbor, new FlockState(location, velocity));
+            if (separation != null) {
+                separation.put((Flock) neighbor, location);
+            }
+            if (kernel != null) {
+                kernel.put((Flock) neighbor, location);
+            }
+            if (close != null) {
+                close.update((Flock) neighbor, location);
+            }
             if (previousState != null) {
                 positionSum.sub(previousState.position);
                 velocitySum.sub(previousState.velocity);
                 positionSum.add(location);
                 velocitySum.add(velocity);
             }
+            break;
+        case FLEE:
+            Point3i lastPosition = predators.put(neighbor, location);
+            if (lastPosition != null) {
+                predatorSums.move(speciesOf(neighbor), lastPosition, location);
+            } else {
+                predatorSums.add(speciesOf(neighbor), location);
+            }
+            break;
+        case HUNT:
+            Point3i previous = prey.put(neighbor, location);
+            if (preyIndex != null) {
+                preyIndex.put(neighbor, location);
+            }
+            if (previous != null) {
+                preySums.move(speciesOf(neighbor), previous, location);
+            } else {
+                preySums.add(speciesOf(neighbor), location);
+            }
+            break;
+        default:
+            break;
         }
     }
 
     @SuppressWarnings("unchecked")
     public void notice(Perceiving neighbor, Point3i location) {
-        if (flockClass.isAssignableFrom(neighbor.getClass())) {
-            flock.put((Flock) neighbor, new FlockState(location, new Vector3i()));
+        switch (interactionWith(neighbor)) {
+        case FLOCK:
+            flock.put((Flock) neighbor, new FlockState(location, FlockState.UNKNOWN));
             positionSum.add(location);
+            if (separation != null) {
+                separation.put((Flock) neighbor, location);
+            }
+            if (kernel != null) {
+                kernel.put((Flock) neighbor, location);
+            }
+            if (close != null) {
+                close.update((Flock) neighbor, location);
+            }
+            break;
+        case FLEE:
+            Point3i lastPosition = predators.put(neighbor, location);
+            if (lastPosition != null) {
+                predatorSums.remove(speciesOf(neighbor), lastPosition);
+            }
+            predatorSums.add(speciesOf(neighbor), location);
+            break;
+        case HUNT:
+            Point3i previous = prey.put(neighbor, location);
+            if (previous != null) {
+                preySums.remove(speciesOf(neighbor), previous);
+            }
+            preySums.add(speciesOf(neighbor), location);
+            if (preyIndex != null) {
+                preyIndex.put(neighbor, location);
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Replace the velocities of the flock mates. Flock mates are noticed without
+     * a velocity, which is only learned when they next move; a restored boid
+     * learns them from the checkpoint instead.
+     *
+     * @param velocities - the current velocity of a flock mate, or null if it
+     *                   is to remain unknown until the mate next moves
+     */
+    public void restoreVelocities(Function<? super Flock, Vector3i> velocities) {
+        velocitySum.set(0, 0, 0);
+        for (Map.Entry<Flock, FlockState> entry : flock.entrySet()) {
+            Vector3i velocity = velocities.apply(entry.getKey());
+            if (velocity != null) {
+                velocity = new Vector3i(velocity);
+                entry.setValue(new FlockState(entry.getValue().position, velocity));
+                velocitySum.add(velocity);
+            }
+        }
+    }
+
+    /**
+     * Maintain the flock mates within the maximum flock distance as their moves
+     * are delivered, so that separation need not search for them at all. This
+     * takes precedence over the separation grid and kernel. The maximum flock
+     * distance must be set first.
+     *
+     * @param owner - the cursor of the boid this is the behavior of, or null to
+     *              stop tracking
+     */
+    public void setCloseNeighbors(Cursor owner) {
+        if (owner == null) {
+            close = null;
+            return;
+        }
+        close = new CloseNeighbors<>(owner, maximumFlockDistance);
+        for (Map.Entry<Flock, FlockState> entry : flock.entrySet()) {
+            close.update(entry.getKey(), entry.getValue().position);
         }
     }
 
@@ -136,10 +401,79 @@ public class FlockingBehavior<Flock extends Perceiving> {
         this.flockClass = flockClass;
     }
 
+    public void setHuntChange(double huntChange) {
+        if (huntChange < 0 || huntChange > 1) {
+            throw new IllegalStateException("Hunt change factor must be between 0 and 1");
+        }
+        this.huntChange = huntChange;
+    }
+
     public void setMaximumFlockDistance(int maximumFlockDistance) {
         this.maximumFlockDistance = maximumFlockDistance;
     }
 
+    public void setPredatorFleeChange(double predatorFleeChange) {
+        this.predatorFleeChange = predatorFleeChange;
+    }
+
+    /**
+     * Index the known prey in a uniform grid, so that the nearest prey can be
+     * found without examining every prey in the area of interest. The cell size
+     * is best matched to the radius of the queries.
+     *
+     * @param cellSize - the grid's cell size, or 0 to drop the index
+     */
+    public void setPreyIndex(int cellSize) {
+        if (cellSize <= 0) {
+            preyIndex = null;
+            return;
+        }
+        preyIndex = new SpatialHash<>(cellSize);
+        for (Map.Entry<Perceiving, Point3i> entry : prey.entrySet()) {
+            preyIndex.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public void setScareDistance(int scareDistance) {
+        this.scareDistance = scareDistance;
+    }
+
+    /**
+     * Index the flock in a uniform grid with cells the size of the maximum flock
+     * distance, so that separation only examines nearby flock mates rather than
+     * the entire flock. The maximum flock distance must be set first.
+     *
+     * @param enabled
+     */
+    public void setSeparationGrid(boolean enabled) {
+        if (!enabled) {
+            separation = null;
+            return;
+        }
+        separation = new SpatialHash<>(maximumFlockDistance);
+        for (Map.Entry<Flock, FlockState> entry : flock.entrySet()) {
+            separation.put(entry.getKey(), entry.getValue().position);
+        }
+    }
+
+    /**
+     * Scan the flock for separation with the kernel, which holds the flock mates'
+     * positions in primitive arrays. The separation grid, if any, takes
+     * precedence.
+     *
+     * @param kernel - the empty kernel, or null to scan the flock map
+     */
+    public void setSeparationKernel(SeparationKernel<Flock> kernel) {
+        this.kernel = kernel;
+        if (kernel == null) {
+            return;
+        }
+        kernel.clear();
+        for (Map.Entry<Flock, FlockState> entry : flock.entrySet()) {
+            kernel.put(entry.getKey(), entry.getValue().position);
+        }
+    }
+
     public void setRepellerChange(double repellerChange) {
         if (repellerChange > 1.0 || repellerChange < 0.0) {
             throw new IllegalArgumentException("Repeller change factor must be {0..1}");
@@ -147,6 +481,22 @@ public class FlockingBehavior<Flock extends Perceiving> {
         this.repellerChange = repellerChange;
     }
 
+    /**
+     * Dispatch on the neighbors' species ids through the registry's interaction
+     * matrix, rather than on their classes. Neighbors that are not
+     * {@link Speciated} are still dispatched by class.
+     *
+     * @param registry - the registry, or null to dispatch by class
+     * @param species  - the species of the boid this is the behavior of
+     */
+    public void setSpecies(SpeciesRegistry registry, int species) {
+        if (registry != null && (species < 0 || species >= registry.size())) {
+            throw new IllegalArgumentException("Unknown species: " + species);
+        }
+        this.registry = registry;
+        this.species = species;
+    }
+
     public void setVelocityMatchChange(double veocityMatchChange) {
         if (veocityMatchChange > 1.0 || veocityMatchChange < 0.0) {
             throw new IllegalArgumentException("Velocity match factor must be {0..1}");
@@ -154,20 +504,102 @@ public class FlockingBehavior<Flock extends Perceiving> {
         this.velocityMatchChange = veocityMatchChange;
     }
 
+    /**
+     * @return the interaction with the neighbor, by class alone
+     */
+    protected Interaction classify(Perceiving neighbor) {
+        return flockClass.isAssignableFrom(neighbor.getClass()) ? Interaction.FLOCK : Interaction.IGNORE;
+    }
+
     /**
      * @param currentPosition
      * @return the vector representing the change in direction required to keep
      *         flock cohesion
      */
     protected Vector3i getCohesionVector(Point3i currentPosition) {
+        return getCohesionVector(currentPosition, new Vector3i());
+    }
+
+    /**
+     * @param currentPosition
+     * @param result          - the vector to store the result in
+     * @return the result, set to the change in direction required to keep flock
+     *         cohesion
+     */
+    protected Vector3i getCohesionVector(Point3i currentPosition, Vector3i result) {
         if (flock.size() == 0) {
-            return new Vector3i();
+            result.set(0, 0, 0);
+            return result;
         }
-        Vector3i vector = new Vector3i(positionSum);
-        vector.scaleInverse(flock.size());
-        vector.sub(currentPosition);
-        vector.scale(cohesionChange);
-        return vector;
+        result.set(positionSum);
+        result.scaleInverse(flock.size());
+        result.sub(currentPosition);
+        result.scale(cohesionChange);
+        return result;
+    }
+
+    protected Vector3i getHuntVector(Point3i currentPosition, int maximumSpeed) {
+        return getHuntVector(currentPosition, maximumSpeed, new Vector3i());
+    }
+
+    /**
+     * Each species of prey is hunted separately, towards the center of its
+     * members, weighed by the interaction matrix
+     */
+    protected Vector3i getHuntVector(Point3i currentPosition, int maximumSpeed, Vector3i result) {
+        result.set(0, 0, 0);
+        for (int s = 0; s < preySums.size(); s++) {
+            int count = preySums.getCount(s);
+            if (count == 0) {
+                continue;
+            }
+            delta.set(preySums.getSum(s));
+            delta.scaleInverse(count);
+            delta.negate();
+            delta.add(currentPosition);
+            if (delta.length() > maximumSpeed) {
+                delta.normalizeTo(maximumSpeed);
+            }
+            delta.scale(huntChange * weightOf(s));
+            result.add(delta);
+        }
+        return result;
+    }
+
+    /**
+     * @param currentPosition
+     * @return the vector which represents the velocity component which takes us
+     *         away from our predators
+     */
+    protected Vector3i getPredatorFleeVector(Point3i currentPosition) {
+        return getPredatorFleeVector(currentPosition, new Vector3i());
+    }
+
+    /**
+     * Each species of predator is fled separately, from the center of its
+     * members, weighed by the interaction matrix
+     *
+     * @param currentPosition
+     * @param result          - the vector to store the result in
+     * @return the result, set to the velocity component which takes us away from
+     *         our predators
+     */
+    protected Vector3i getPredatorFleeVector(Point3i currentPosition, Vector3i result) {
+        result.set(0, 0, 0);
+        for (int s = 0; s < predatorSums.size(); s++) {
+            int count = predatorSums.getCount(s);
+            if (count == 0) {
+                continue;
+            }
+            delta.set(predatorSums.getSum(s));
+            delta.scaleInverse(count);
+            delta.sub(currentPosition);
+            if (delta.length() < scareDistance) {
+                delta.scale(predatorFleeChange * weightOf(s));
+                result.add(delta);
+            }
+        }
+        return result;
     }
 
     /**
@@ -176,18 +608,42 @@ public class FlockingBehavior<Flock extends Perceiving> {
      *         running into members of the flock
      */
     protected Vector3i getRepellerVector(Point3i currentPosition, int maximumSpeed) {
-        Vector3i repeller = new Vector3i();
+        return getRepellerVector(currentPosition, maximumSpeed, new Vector3i());
+    }
+
+    /**
+     * @param currentPosition
+     * @param result          - the vector to store the result in
+     * @return the result, set to the change in velocity necessary to keep from
+     *         running into members of the flock
+     */
+    protected Vector3i getRepellerVector(Point3i currentPosition, int maximumSpeed, Vector3i result) {
+        result.set(0, 0, 0);
+        if (close != null || separation != null || kernel != null) {
+            // the sum of (position - currentPosition) over the close flock mates
+            int count;
+            if (close != null) {
+                count = close.sumWithin(result);
+            } else if (separation != null) {
+                count = separation.sumWithin(currentPosition, maximumFlockDistance, result);
+            } else {
+                count = kernel.sumWithin(currentPosition, maximumFlockDistance, result);
+            }
+            delta.set(currentPosition);
+            delta.scale(count);
+            result.sub(delta);
+            result.scale(repellerChange);
+            return result;
+        }
         for (FlockState state : flock.values()) {
-            Vector3i v = new Vector3i(currentPosition);
-            v.sub(state.position);
-            if (v.length() <= maximumFlockDistance) {
-                Point3i p = new Point3i(currentPosition);
-                p.sub(state.position);
-                repeller.sub(p);
+            delta.set(currentPosition);
+            delta.sub(state.position);
+            if (delta.length() <= maximumFlockDistance) {
+                result.sub(delta);
             }
         }
-        repeller.scale(repellerChange);
-        return repeller;
+        result.scale(repellerChange);
+        return result;
     }
 
     /**
@@ -196,13 +652,49 @@ public class FlockingBehavior<Flock extends Perceiving> {
      *         flock's velocity
      */
     protected Vector3i getVelocityMatchVector(Vector3i currentVelocity) {
+        return getVelocityMatchVector(currentVelocity, new Vector3i());
+    }
+
+    /**
+     * @param currentVelocity
+     * @param result          - the vector to store the result in
+     * @return the result, set to the change in velocity required to match the
+     *         flock's velocity
+     */
+    protected Vector3i getVelocityMatchVector(Vector3i currentVelocity, Vector3i result) {
         if (flock.size() == 0) {
-            return new Vector3i();
+            result.set(0, 0, 0);
+            return result;
         }
-        Vector3i vector = new Vector3i(velocitySum);
-        vector.scaleInverse(flock.size());
-        vector.sub(currentVelocity);
-        vector.scale(velocityMatchChange);
-        return vector;
+        result.set(velocitySum);
+        result.scaleInverse(flock.size());
+        result.sub(currentVelocity);
+        result.scale(velocityMatchChange);
+        return result;
+    }
+
+    /**
+     * @return the interaction with the neighbor, from the matrix if it has a
+     *         species
+     */
+    protected Interaction interactionWith(Perceiving neighbor) {
+        if (registry != null && neighbor instanceof Speciated speciated) {
+            return registry.getInteraction(species, speciated.getSpeciesId());
+        }
+        return classify(neighbor);
+    }
+
+    /**
+     * @return the species id of the neighbor, or 0 when dispatching by class
+     */
+    protected int speciesOf(Perceiving neighbor) {
+        return registry != null && neighbor instanceof Speciated speciated ? speciated.getSpeciesId() : 0;
+    }
+
+    /**
+     * @return the weight of our response to the other species
+     */
+    protected double weightOf(int other) {
+        return registry != null ? registry.getWeight(species, other) : 1.0;
     }
 }
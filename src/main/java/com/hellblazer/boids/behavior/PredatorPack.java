@@ -18,12 +18,10 @@
 package com.hellblazer.boids.behavior;
 
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 
 import javax.vecmath.Point3i;
 
-import com.hellblazer.geometry.Vector3i;
 import com.hellblazer.thoth.Perceiving;
 
 /**
@@ -33,92 +31,36 @@ import com.hellblazer.thoth.Perceiving;
  */
 
 public class PredatorPack<Pack extends Perceiving, Prey extends Perceiving> extends FlockingBehavior<Pack> {
-    protected double             huntChange;
-    protected Map<Prey, Point3i> prey            = new HashMap<Prey, Point3i>();
-    protected Class<?>           preyClass;
-    protected Point3i            preyPositionSum = new Point3i();
-
-    @Override
-    public void fade(Perceiving neighbor) {
-        super.fade(neighbor);
-        Point3i lastPosition = prey.remove(neighbor);
-        if (lastPosition != null) {
-            preyPositionSum.sub(lastPosition);
-        }
-    }
+    protected Class<?> preyClass;
 
+    @SuppressWarnings("unchecked")
     @Override
-    public Vector3i getFlockingVector(Point3i currentPosition, Vector3i currentVelocity, int maximumSpeed) {
-        Vector3i vector = super.getFlockingVector(currentPosition, currentVelocity, maximumSpeed);
-        Vector3i huntVector = getHuntVector(currentPosition, maximumSpeed);
-        vector.sub(huntVector);
-        return vector;
-    }
-
-    public double getHuntChange() {
-        return huntChange;
+    public Prey getNearestPrey(Point3i position, int radius) {
+        return (Prey) super.getNearestPrey(position, radius);
     }
 
     public Point3i getPosition(Prey p) {
         return prey.get(p);
     }
 
+    @SuppressWarnings("unchecked")
     public Map<Prey, Point3i> getPrey() {
-        return Collections.unmodifiableMap(prey);
+        return Collections.unmodifiableMap((Map<Prey, Point3i>) (Map<?, Point3i>) prey);
     }
 
     public Class<?> getPreyClass() {
         return preyClass;
     }
 
-    @SuppressWarnings("unchecked")
-    @Override
-    public void move(Perceiving neighbor, Point3i location, Vector3i velocity) {
-        if (preyClass.isAssignableFrom(neighbor.getClass())) {
-            Point3i previous = prey.put((Prey) neighbor, location);
-            if (previous != null) {
-                preyPositionSum.sub(previous);
-                preyPositionSum.add(location);
-            }
-        } else {
-            super.move(neighbor, location, velocity);
-        }
-    }
-
-    @SuppressWarnings("unchecked")
-    @Override
-    public void notice(Perceiving neighbor, Point3i location) {
-        if (preyClass.isAssignableFrom(neighbor.getClass())) {
-            prey.put((Prey) neighbor, location);
-            preyPositionSum.add(location);
-        } else {
-            super.notice(neighbor, location);
-        }
-    }
-
-    public void setHuntChange(double huntChange) {
-        if (huntChange < 0 || huntChange > 1) {
-            throw new IllegalStateException("Hunt change factor must be between 0 and 1");
-        }
-        this.huntChange = huntChange;
-    }
-
     public void setPreyClass(Class<?> preyClass) {
         this.preyClass = preyClass;
     }
 
-    protected Vector3i getHuntVector(Point3i currentPosition, int maximumSpeed) {
-        if (prey.size() == 0) {
-            return new Vector3i();
-        }
-        Vector3i avg = new Vector3i(preyPositionSum);
-        avg.scaleInverse(prey.size());
-        Vector3i vector = new Vector3i(currentPosition);
-        vector.sub(avg);
-        if (vector.length() > maximumSpeed) {
-            vector.normalizeTo(maximumSpeed);
+    @Override
+    protected Interaction classify(Perceiving neighbor) {
+        if (preyClass.isAssignableFrom(neighbor.getClass())) {
+            return Interaction.HUNT;
         }
-        vector.scale(huntChange);
-        return vector;
+        return super.classify(neighbor);
     }
 }
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.hellblazer.boids.behavior;
+
+import javax.vecmath.Point3i;
+import javax.vecmath.Tuple3i;
+
+/**
+ * The separation scan, one flock mate at a time
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class ScalarSeparationKernel<T> extends SeparationKernel<T> {
+    private final double[] sum = new double[3];
+
+    @Override
+    public int sumWithin(Point3i center, int radius, Tuple3i result) {
+        sum[0] = sum[1] = sum[2] = 0.0;
+        int close = sumWithin(0, center.x, center.y, center.z, (double) radius * radius, sum);
+        result.x += (int) sum[0];
+        result.y += (int) sum[1];
+        result.z += (int) sum[2];
+        return close;
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.hellblazer.boids.behavior;
+
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.vecmath.Point3i;
+import javax.vecmath.Tuple3i;
+
+/**
+ * The flock's positions held in primitive arrays, one per axis, for the
+ * separation scan. Close flock mates are found by squared distance rather than
+ * by the length of a difference vector. Coordinates are held as doubles, which
+ * represent the squared distances of any field up to some 10^7 units exactly,
+ * so the scalar and vector kernels give identical results.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public abstract class SeparationKernel<T> {
+    private static final Constructor<?> VECTOR_KERNEL = vectorKernel();
+
+    /**
+     * @param vector - use the Vector API kernel, if it was built and the
+     *               jdk.incubator.vector module is present
+     * @return a new, empty kernel. Asking for the vector kernel silently returns
+     *         the scalar kernel when it is unavailable; see
+     *         {@link #isVectorAvailable()}.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> SeparationKernel<T> create(boolean vector) {
+        if (vector && VECTOR_KERNEL != null) {
+            try {
+                return (SeparationKernel<T>) VECTOR_KERNEL.newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Unable to create the vector kernel", e);
+            }
+        }
+        return new ScalarSeparationKernel<>();
+    }
+
+    /**
+     * @return true if the Vector API kernel is available
+     */
+    public static boolean isVectorAvailable() {
+        return VECTOR_KERNEL != null;
+    }
+
+    /**
+     * The vector kernel is only compiled by the vector profile, and only loads
+     * with the jdk.incubator.vector module
+     */
+    private static Constructor<?> vectorKernel() {
+        try {
+            Class.forName("jdk.incubator.vector.DoubleVector");
+            return Class.forName("com.hellblazer.boids.behavior.VectorSeparationKernel").getConstructor();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    protected Object[]              items = new Object[16];
+    protected int                   size;
+    protected final Map<T, Integer> slots = new HashMap<>();
+    protected double[]              xs    = new double[16];
+    protected double[]              ys    = new double[16];
+    protected double[]              zs    = new double[16];
+
+    public void clear() {
+        Arrays.fill(items, 0, size, null);
+        slots.clear();
+        size = 0;
+    }
+
+    /**
+     * Insert the item at the position, or move it there
+     */
+    public void put(T item, Point3i position) {
+        Integer slot = slots.get(item);
+        int i;
+        if (slot == null) {
+            if (size == xs.length) {
+                int capacity = size * 2;
+                items = Arrays.copyOf(items, capacity);
+                xs = Arrays.copyOf(xs, capacity);
+                ys = Arrays.copyOf(ys, capacity);
+                zs = Arrays.copyOf(zs, capacity);
+            }
+            i = size++;
+            items[i] = item;
+            slots.put(item, i);
+        } else {
+            i = slot;
+        }
+        xs[i] = position.x;
+        ys[i] = position.y;
+        zs[i] = position.z;
+    }
+
+    public void remove(Object item) {
+        Integer slot = slots.remove(item);
+        if (slot == null) {
+            return;
+        }
+        int i = slot;
+        int last = --size;
+        if (i != last) {
+            @SuppressWarnings("unchecked")
+            T moved = (T) items[last];
+            items[i] = moved;
+            xs[i] = xs[last];
+            ys[i] = ys[last];
+            zs[i] = zs[last];
+            slots.put(moved, i);
+        }
+        items[last] = null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Sum the positions of the items within the radius of the center
+     *
+     * @param center
+     * @param radius
+     * @param sum    - the tuple the positions are added to
+     * @return the number of items within the radius
+     */
+    public abstract int sumWithin(Point3i center, int radius, Tuple3i sum);
+
+    /**
+     * Sum the positions of the items from the index onward within the radius,
+     * one at a time
+     *
+     * @return the number of items within the radius
+     */
+    protected int sumWithin(int from, double cx, double cy, double cz, double radiusSquared, double[] sum) {
+        int close = 0;
+        for (int i = from; i < size; i++) {
+            double dx = xs[i] - cx;
+            double dy = ys[i] - cy;
+            double dz = zs[i] - cz;
+            if (dx * dx + dy * dy + dz * dz <= radiusSquared) {
+                sum[0] += xs[i];
+                sum[1] += ys[i];
+                sum[2] += zs[i];
+                close++;
+            }
+        }
+        return close;
+    }
+}
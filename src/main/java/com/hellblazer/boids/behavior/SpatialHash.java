@@ -0,0 +1,283 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.boids.behavior;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.vecmath.Point3i;
+import javax.vecmath.Tuple3i;
+
+/**
+ * A uniform grid over the positions of a set of items. Each cell is a cube of
+ * <code>cellSize</code>; when the cell size is at least the query radius, a
+ * query only has to examine the cell containing the center and its immediate
+ * neighbors.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class SpatialHash<T> {
+    private static class Entry<T> {
+        final Point3i cell     = new Point3i();
+        final T       item;
+        final Point3i position = new Point3i();
+
+        Entry(T item) {
+            this.item = item;
+        }
+    }
+
+    private final int                         cellSize;
+    private final Map<Point3i, List<Entry<T>>> cells   = new HashMap<>();
+    private final Map<T, Entry<T>>             entries = new HashMap<>();
+    private int                                highest = Integer.MIN_VALUE;
+    private int                                lowest  = Integer.MAX_VALUE;
+    private final Point3i                      probe   = new Point3i();
+
+    public SpatialHash(int cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive");
+        }
+        this.cellSize = cellSize;
+    }
+
+    public void clear() {
+        cells.clear();
+        entries.clear();
+        highest = Integer.MIN_VALUE;
+        lowest = Integer.MAX_VALUE;
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Find the nearest item within the radius of the center. Cells are searched
+     * in rings of increasing distance, stopping as soon as no unsearched cell can
+     * hold anything nearer than the best found so far. Only the layers of cells
+     * that have held items are searched, so a planar set searches rings of a
+     * single layer.
+     *
+     * @param center
+     * @param radius
+     * @return the nearest item, or null if there are none within the radius
+     */
+    public T nearest(Point3i center, int radius) {
+        long radiusSquared = (long) radius * radius;
+        long bestSquared = Long.MAX_VALUE;
+        T best = null;
+        int cx = Math.floorDiv(center.x, cellSize);
+        int cy = Math.floorDiv(center.y, cellSize);
+        int cz = Math.floorDiv(center.z, cellSize);
+        int rings = Math.ceilDiv(radius, cellSize);
+        for (int ring = 0; ring <= rings; ring++) {
+            if (best != null) {
+                long reach = (long) (ring - 1) * cellSize;
+                if (ring > 0 && reach * reach >= bestSquared) {
+                    break;
+                }
+            }
+            for (int x = cx - ring; x <= cx + ring; x++) {
+                for (int y = cy - ring; y <= cy + ring; y++) {
+                    for (int z = Math.max(cz - ring, lowest); z <= Math.min(cz + ring, highest); z++) {
+                        if (Math.abs(x - cx) != ring && Math.abs(y - cy) != ring && Math.abs(z - cz) != ring) {
+                            continue; // interior, searched in a previous ring
+                        }
+                        probe.set(x, y, z);
+                        List<Entry<T>> cell = cells.get(probe);
+                        if (cell == null) {
+                            continue;
+                        }
+                        for (int i = 0; i < cell.size(); i++) {
+                            Entry<T> entry = cell.get(i);
+                            long d = distanceSquared(center, entry.position);
+                            if (d <= radiusSquared && d < bestSquared) {
+                                bestSquared = d;
+                                best = entry.item;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Insert the item at the position, or move it there if already present
+     *
+     * @param item
+     * @param position
+     */
+    public void put(T item, Point3i position) {
+        Entry<T> entry = entries.get(item);
+        if (entry == null) {
+            entry = new Entry<>(item);
+            entries.put(item, entry);
+            entry.position.set(position);
+            cellOf(position, entry.cell);
+            link(entry);
+            return;
+        }
+        entry.position.set(position);
+        cellOf(position, probe);
+        if (!probe.equals(entry.cell)) {
+            unlink(entry);
+            entry.cell.set(probe);
+            link(entry);
+        }
+    }
+
+    /**
+     * Remove the item
+     *
+     * @param item
+     * @return true if the item was present
+     */
+    public boolean remove(Object item) {
+        Entry<T> entry = entries.remove(item);
+        if (entry == null) {
+            return false;
+        }
+        unlink(entry);
+        return true;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Sum the positions of the items within the radius of the center. As for all
+     * queries, only the layers of cells that have held items are examined.
+     *
+     * @param center
+     * @param radius
+     * @param sum    - the tuple the positions are added to
+     * @return the number of items within the radius
+     */
+    public int sumWithin(Point3i center, int radius, Tuple3i sum) {
+        long radiusSquared = (long) radius * radius;
+        int count = 0;
+        int minX = Math.floorDiv(center.x - radius, cellSize), maxX = Math.floorDiv(center.x + radius, cellSize);
+        int minY = Math.floorDiv(center.y - radius, cellSize), maxY = Math.floorDiv(center.y + radius, cellSize);
+        int minZ = Math.max(Math.floorDiv(center.z - radius, cellSize), lowest);
+        int maxZ = Math.min(Math.floorDiv(center.z + radius, cellSize), highest);
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    probe.set(x, y, z);
+                    List<Entry<T>> cell = cells.get(probe);
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < cell.size(); i++) {
+                        Point3i position = cell.get(i).position;
+                        if (distanceSquared(center, position) <= radiusSquared) {
+                            sum.add(position);
+                            count++;
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Collect the items within the radius of the center
+     *
+     * @param center
+     * @param radius
+     * @param result - the collection the items are added to
+     * @return the number of items within the radius
+     */
+    public int within(Point3i center, int radius, Collection<? super T> result) {
+        long radiusSquared = (long) radius * radius;
+        int count = 0;
+        int minX = Math.floorDiv(center.x - radius, cellSize), maxX = Math.floorDiv(center.x + radius, cellSize);
+        int minY = Math.floorDiv(center.y - radius, cellSize), maxY = Math.floorDiv(center.y + radius, cellSize);
+        int minZ = Math.max(Math.floorDiv(center.z - radius, cellSize), lowest);
+        int maxZ = Math.min(Math.floorDiv(center.z + radius, cellSize), highest);
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    probe.set(x, y, z);
+                    List<Entry<T>> cell = cells.get(probe);
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < cell.size(); i++) {
+                        Entry<T> entry = cell.get(i);
+                        if (distanceSquared(center, entry.position) <= radiusSquared) {
+                            result.add(entry.item);
+                            count++;
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    protected long distanceSquared(Point3i a, Point3i b) {
+        long dx = (long) a.x - b.x;
+        long dy = (long) a.y - b.y;
+        long dz = (long) a.z - b.z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private List<Entry<T>> cell(Point3i index, boolean create) {
+        List<Entry<T>> cell = cells.get(index);
+        if (cell == null && create) {
+            cell = new ArrayList<>(4);
+            cells.put(new Point3i(index), cell);
+        }
+        return cell;
+    }
+
+    private void cellOf(Point3i position, Point3i index) {
+        index.set(Math.floorDiv(position.x, cellSize), Math.floorDiv(position.y, cellSize),
+                  Math.floorDiv(position.z, cellSize));
+    }
+
+    /**
+     * Add the entry to its cell, widening the layers that have held items
+     */
+    private void link(Entry<T> entry) {
+        cell(entry.cell, true).add(entry);
+        lowest = Math.min(lowest, entry.cell.z);
+        highest = Math.max(highest, entry.cell.z);
+    }
+
+    private void unlink(Entry<T> entry) {
+        List<Entry<T>> cell = cells.get(entry.cell);
+        if (cell != null) {
+            cell.remove(entry);
+            if (cell.isEmpty()) {
+                cells.remove(entry.cell);
+            }
+        }
+    }
+}
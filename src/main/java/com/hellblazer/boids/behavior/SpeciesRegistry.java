@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.hellblazer.boids.behavior;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The species of a simulation, identified by small integers in the order they
+ * are registered, and the interaction matrix between them. Each entry says how
+ * a boid of one species responds to a neighbor of another, and weighs that
+ * response. Unless set otherwise, species ignore each other and the weights
+ * are 1. Flock mates of every species are pooled into the one flock, so
+ * flocking is not weighed.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class SpeciesRegistry {
+    private Interaction[][]    interactions = new Interaction[0][];
+    private final List<String> names        = new ArrayList<>();
+    private double[][]         weights      = new double[0][];
+
+    /**
+     * @return how a boid of the species responds to a neighbor of the other
+     */
+    public Interaction getInteraction(int species, int other) {
+        return interactions[species][other];
+    }
+
+    public String getName(int species) {
+        return names.get(species);
+    }
+
+    /**
+     * @return the id of the named species, or -1 if it is not registered
+     */
+    public int getSpecies(String name) {
+        return names.indexOf(name);
+    }
+
+    /**
+     * @return the weight of the response of a boid of the species to a neighbor
+     *         of the other
+     */
+    public double getWeight(int species, int other) {
+        return weights[species][other];
+    }
+
+    /**
+     * Register a new species
+     *
+     * @return the id of the species
+     */
+    public int register(String name) {
+        if (names.contains(name)) {
+            throw new IllegalArgumentException("Species already registered: " + name);
+        }
+        int species = names.size();
+        names.add(name);
+        int size = names.size();
+        interactions = Arrays.copyOf(interactions, size);
+        weights = Arrays.copyOf(weights, size);
+        for (int i = 0; i < size; i++) {
+            if (i == species) {
+                interactions[i] = new Interaction[size];
+                weights[i] = new double[size];
+                Arrays.fill(interactions[i], Interaction.IGNORE);
+                Arrays.fill(weights[i], 1.0);
+            } else {
+                interactions[i] = Arrays.copyOf(interactions[i], size);
+                weights[i] = Arrays.copyOf(weights[i], size);
+                interactions[i][species] = Interaction.IGNORE;
+                weights[i][species] = 1.0;
+            }
+        }
+        return species;
+    }
+
+    public void set(int species, int other, Interaction interaction) {
+        set(species, other, interaction, 1.0);
+    }
+
+    /**
+     * Set how a boid of the species responds to a neighbor of the other. The
+     * weight of flocking must be 1.
+     */
+    public void set(int species, int other, Interaction interaction, double weight) {
+        if (species < 0 || species >= names.size() || other < 0 || other >= names.size()) {
+            throw new IllegalArgumentException("Unknown species");
+        }
+        if (interaction == null) {
+            throw new IllegalArgumentException("Interaction must not be null");
+        }
+        if (weight < 0.0) {
+            throw new IllegalArgumentException("Weight must not be negative");
+        }
+        if (interaction == Interaction.FLOCK && weight != 1.0) {
+            throw new IllegalArgumentException("Flock mates are pooled, so flocking cannot be weighed");
+        }
+        interactions[species][other] = interaction;
+        weights[species][other] = weight;
+    }
+
+    /**
+     * @return the number of registered species
+     */
+    public int size() {
+        return names.size();
+    }
+}
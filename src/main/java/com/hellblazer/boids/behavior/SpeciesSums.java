@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.hellblazer.boids.behavior;
+
+import java.util.Arrays;
+
+import javax.vecmath.Point3i;
+
+/**
+ * The number and position sum of the neighbors of each species, maintained
+ * incrementally as they are noticed, move and fade
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class SpeciesSums {
+    private int[]     counts = new int[1];
+    private Point3i[] sums   = { new Point3i() };
+
+    public void add(int species, Point3i position) {
+        ensure(species);
+        counts[species]++;
+        sums[species].add(position);
+    }
+
+    public void clear() {
+        Arrays.fill(counts, 0);
+        for (Point3i sum : sums) {
+            sum.set(0, 0, 0);
+        }
+    }
+
+    public int getCount(int species) {
+        return species < counts.length ? counts[species] : 0;
+    }
+
+    /**
+     * @return the sum of the positions of the species; not to be modified
+     */
+    public Point3i getSum(int species) {
+        ensure(species);
+        return sums[species];
+    }
+
+    public void move(int species, Point3i from, Point3i to) {
+        ensure(species);
+        sums[species].sub(from);
+        sums[species].add(to);
+    }
+
+    public void remove(int species, Point3i position) {
+        ensure(species);
+        counts[species]--;
+        sums[species].sub(position);
+    }
+
+    /**
+     * @return one more than the highest species id seen
+     */
+    public int size() {
+        return counts.length;
+    }
+
+    private void ensure(int species) {
+        if (species < counts.length) {
+            return;
+        }
+        int size = species + 1;
+        int previous = counts.length;
+        counts = Arrays.copyOf(counts, size);
+        sums = Arrays.copyOf(sums, size);
+        for (int i = previous; i < size; i++) {
+            sums[i] = new Point3i();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.hellblazer.boids.behavior;
+
+import javax.vecmath.Point3i;
+import javax.vecmath.Tuple3i;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The separation scan with the Vector API, a register's width of flock mates
+ * at a time. Only compiled by the vector profile, and only loaded when the
+ * jdk.incubator.vector module is present; see
+ * {@link SeparationKernel#create(boolean)}.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class VectorSeparationKernel<T> extends SeparationKernel<T> {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private final double[] sum = new double[3];
+
+    @Override
+    public int sumWithin(Point3i center, int radius, Tuple3i result) {
+        double cx = center.x;
+        double cy = center.y;
+        double cz = center.z;
+        double radiusSquared = (double) radius * radius;
+        DoubleVector sumX = DoubleVector.zero(SPECIES);
+        DoubleVector sumY = DoubleVector.zero(SPECIES);
+        DoubleVector sumZ = DoubleVector.zero(SPECIES);
+        int close = 0;
+        int i = 0;
+        for (int bound = SPECIES.loopBound(size); i < bound; i += SPECIES.length()) {
+            DoubleVector x = DoubleVector.fromArray(SPECIES, xs, i);
+            DoubleVector y = DoubleVector.fromArray(SPECIES, ys, i);
+            DoubleVector z = DoubleVector.fromArray(SPECIES, zs, i);
+            DoubleVector dx = x.sub(cx);
+            DoubleVector dy = y.sub(cy);
+            DoubleVector dz = z.sub(cz);
+            VectorMask<Double> within = dx.mul(dx)
+                                          .add(dy.mul(dy))
+                                          .add(dz.mul(dz))
+                                          .compare(VectorOperators.LE, radiusSquared);
+            sumX = sumX.add(x, within);
+            sumY = sumY.add(y, within);
+            sumZ = sumZ.add(z, within);
+            close += within.trueCount();
+        }
+        sum[0] = sumX.reduceLanes(VectorOperators.ADD);
+        sum[1] = sumY.reduceLanes(VectorOperators.ADD);
+        sum[2] = sumZ.reduceLanes(VectorOperators.ADD);
+        close += sumWithin(i, cx, cy, cz, radiusSquared, sum);
+        result.x += (int) sum[0];
+        result.y += (int) sum[1];
+        result.z += (int) sum[2];
+        return close;
+    }
+}
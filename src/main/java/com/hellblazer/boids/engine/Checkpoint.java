@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.hellblazer.boids.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The complete state of a simulation between ticks: the tick and controller
+ * time, the simulation's random number generator, the seed of the boids'
+ * random streams and, for every boid, its position, velocity, the draws made
+ * from its stream, its pace and, for predators, stamina and target. The flocks each boid knows
+ * are not saved; they are rebuilt from the overlay on restore, save for the
+ * flock mates whose velocity the boid has yet to learn.
+ * <p>
+ * The format is a big endian stream of:
+ *
+ * <pre>
+ * magic, version (ints)
+ * tick, controller time (longs)
+ * boid seed (long)
+ * simulation random (length prefixed serialized Random)
+ * count (int), then per boid:
+ *     id, species, color, x, y, z, vx, vy, vz, stamina, target id or -1 (ints)
+ *     random draws (long)
+ *     stride, delay (ints)
+ *     count of flock mates not yet seen to move, then their ids (ints)
+ * </pre>
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class Checkpoint {
+    public record BoidState(int id, int species, int color, int x, int y, int z, int vx, int vy, int vz,
+                            int stamina, int target, long draws, int stride, int delay, List<Integer> unmoved) {
+    }
+
+    public static final int MAGIC   = 0x42434B50; // "BCKP"
+    public static final int VERSION = 4;
+
+    public static Checkpoint read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a checkpoint, or an unsupported version: " + file);
+            }
+            long tick = in.readLong();
+            long time = in.readLong();
+            long boidSeed = in.readLong();
+            Random random = readRandom(in);
+            int count = in.readInt();
+            List<BoidState> boids = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                boids.add(new BoidState(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+                                        in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+                                        in.readInt(), in.readLong(), in.readInt(), in.readInt(), readIds(in)));
+            }
+            return new Checkpoint(tick, time, boidSeed, random, boids);
+        }
+    }
+
+    private static List<Integer> readIds(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Integer> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(in.readInt());
+        }
+        return ids;
+    }
+
+    private static Random readRandom(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Random) ois.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Invalid random number generator state", e);
+        }
+    }
+
+    private static void writeRandom(Random random, DataOutputStream out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(random);
+        }
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    private final List<BoidState> boids;
+    private final long            boidSeed;
+    private final Random          random;
+    private final long            tick;
+    private final long            time;
+
+    public Checkpoint(long tick, long time, long boidSeed, Random random, List<BoidState> boids) {
+        this.tick = tick;
+        this.time = time;
+        this.boidSeed = boidSeed;
+        this.random = random;
+        this.boids = boids;
+    }
+
+    /**
+     * @return the boids, prey then predators, in population order
+     */
+    public List<BoidState> getBoids() {
+        return Collections.unmodifiableList(boids);
+    }
+
+    /**
+     * @return the seed of the boids' random streams
+     */
+    public long getBoidSeed() {
+        return boidSeed;
+    }
+
+    /**
+     * @return the generator of the simulation
+     */
+    public Random getRandom() {
+        return random;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * @return the simulated time of the controller
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public void write(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file),
+                                                                                  1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(tick);
+            out.writeLong(time);
+            out.writeLong(boidSeed);
+            writeRandom(random, out);
+            out.writeInt(boids.size());
+            for (BoidState boid : boids) {
+                out.writeInt(boid.id());
+                out.writeInt(boid.species());
+                out.writeInt(boid.color());
+                out.writeInt(boid.x());
+                out.writeInt(boid.y());
+                out.writeInt(boid.z());
+                out.writeInt(boid.vx());
+                out.writeInt(boid.vy());
+                out.writeInt(boid.vz());
+                out.writeInt(boid.stamina());
+                out.writeInt(boid.target());
+                out.writeLong(boid.draws());
+                out.writeInt(boid.stride());
+                out.writeInt(boid.delay());
+                out.writeInt(boid.unmoved().size());
+                for (int id : boid.unmoved()) {
+                    out.writeInt(id);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.hellblazer.boids.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.vecmath.Point2d;
+import javax.vecmath.Point3i;
+
+import com.hellblazer.boids.behavior.SpatialHash;
+import com.hellblazer.geometry.Vector3i;
+import com.hellblazer.thoth.Perceiving;
+import com.hellblazer.thoth.impl.AbstractNode;
+import com.hellblazer.thoth.impl.Perceptron;
+
+/**
+ * A perceptron for fields with depth, which the overlay's Voronoi diagram does
+ * not cover. The perceptrons of a simulation share a uniform grid, with cells
+ * the size of the largest area of interest, and find their neighbors there
+ * rather than through the overlay; the area of interest is a sphere.
+ * <p>
+ * The events delivered are the overlay's: a perceptron notices another
+ * entering its area of interest, is told of each of its moves while it remains
+ * there, and of its fading on leaving or departing. The events of a move share
+ * one copy of its location and velocity, which the receivers must not modify.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class GridPerceptron<E extends Perceiving> extends Perceptron<E> {
+    /**
+     * The grid shared by the perceptrons of a simulation
+     */
+    public static class Space {
+        private final List<GridPerceptron<?>>        found = new ArrayList<>();
+        private final SpatialHash<GridPerceptron<?>> grid;
+
+        /**
+         * @param reach - the largest area of interest radius of the perceptrons
+         */
+        public Space(int reach) {
+            grid = new SpatialHash<>(reach);
+        }
+
+        public int size() {
+            return grid.size();
+        }
+    }
+
+    private boolean                      joined;
+    private final Set<GridPerceptron<?>> perceived  = new LinkedHashSet<>();
+    private final Set<GridPerceptron<?>> perceivers = new LinkedHashSet<>();
+    private final Point3i                position;
+    private final long                   radiusSquared;
+    private final Space                  space;
+
+    public GridPerceptron(Space space, E sim, UUID id, Point3i location, int aoiRadius, int maximumVelocity) {
+        super(sim, id, location, aoiRadius, maximumVelocity, true);
+        if (aoiRadius > space.grid.getCellSize()) {
+            throw new IllegalArgumentException("Area of interest exceeds the reach of the space: " + aoiRadius);
+        }
+        this.space = space;
+        this.position = new Point3i(location);
+        this.radiusSquared = (long) aoiRadius * aoiRadius;
+    }
+
+    @Override
+    public Point3i getLocation() {
+        return position;
+    }
+
+    /**
+     * @return the perceptrons within our area of interest
+     */
+    @Override
+    public Collection<AbstractNode<? extends Perceiving>> getNeighbors() {
+        return new ArrayList<>(perceived);
+    }
+
+    /**
+     * There is no Voronoi domain in the grid
+     */
+    @Override
+    public List<Point2d[]> getVoronoiDomainEdges() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Enter the space, noticing and being noticed by the perceptrons in range.
+     * The grid is shared, so the gateway is not needed.
+     */
+    @Override
+    public void join(AbstractNode<?> gateway) {
+        if (joined) {
+            return;
+        }
+        joined = true;
+        space.grid.put(this, position);
+        perceive(null);
+    }
+
+    /**
+     * Depart the space, fading from every perceptron that perceived us
+     */
+    @Override
+    public void leave() {
+        if (!joined) {
+            return;
+        }
+        joined = false;
+        space.grid.remove(this);
+        for (GridPerceptron<?> perceiver : perceivers) {
+            perceiver.perceived.remove(this);
+            perceiver.getSim().fade(getSim());
+        }
+        for (GridPerceptron<?> neighbor : perceived) {
+            neighbor.perceivers.remove(this);
+        }
+        perceivers.clear();
+        perceived.clear();
+    }
+
+    /**
+     * Move, telling the perceptrons in range. A perceptron that has not joined,
+     * or has departed, only moves.
+     */
+    @Override
+    public void moveBy(Vector3i velocity) {
+        position.add(velocity);
+        if (!joined) {
+            return;
+        }
+        space.grid.put(this, position);
+        perceive(velocity);
+    }
+
+    private long distanceSquared(GridPerceptron<?> other) {
+        long dx = (long) position.x - other.position.x;
+        long dy = (long) position.y - other.position.y;
+        long dz = (long) position.z - other.position.z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Reconcile who perceives whom with our position: fade from those we have
+     * left the range of, and drop those that have left ours, then notice and be
+     * noticed by those newly in range, telling the rest of the move, if any
+     */
+    private void perceive(Vector3i velocity) {
+        Point3i location = new Point3i(position);
+        Vector3i moved = velocity == null ? null : new Vector3i(velocity);
+        for (Iterator<GridPerceptron<?>> i = perceivers.iterator(); i.hasNext();) {
+            GridPerceptron<?> perceiver = i.next();
+            if (distanceSquared(perceiver) > perceiver.radiusSquared) {
+                i.remove();
+                perceiver.perceived.remove(this);
+                perceiver.getSim().fade(getSim());
+            }
+        }
+        for (Iterator<GridPerceptron<?>> i = perceived.iterator(); i.hasNext();) {
+            GridPerceptron<?> neighbor = i.next();
+            if (distanceSquared(neighbor) > radiusSquared) {
+                i.remove();
+                neighbor.perceivers.remove(this);
+                getSim().fade(neighbor.getSim());
+            }
+        }
+        List<GridPerceptron<?>> found = space.found;
+        found.clear();
+        space.grid.within(position, space.grid.getCellSize(), found);
+        for (int i = 0; i < found.size(); i++) {
+            GridPerceptron<?> neighbor = found.get(i);
+            if (neighbor == this) {
+                continue;
+            }
+            long distanceSquared = distanceSquared(neighbor);
+            if (distanceSquared <= neighbor.radiusSquared) {
+                if (perceivers.add(neighbor)) {
+                    neighbor.perceived.add(this);
+                    neighbor.getSim().notice(getSim(), location);
+                } else if (moved != null) {
+                    neighbor.getSim().move(getSim(), location, moved);
+                }
+            }
+            if (distanceSquared <= radiusSquared && perceived.add(neighbor)) {
+                neighbor.perceivers.add(this);
+                getSim().notice(neighbor.getSim(), new Point3i(neighbor.position));
+            }
+        }
+        found.clear();
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.boids.engine;
+
+import javax.vecmath.Point3i;
+
+/**
+ * The tunable parameters of a predator/prey simulation. Distances and speeds
+ * are expressed in field units, which are <code>scale</code> times finer than
+ * display pixels.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class Parameters {
+    public int     scale                        = 100;
+    public int     width                        = 1500;
+    public int     height                       = 1000;
+    /**
+     * The depth of the field, in display units. Zero confines the boids to the
+     * plane; otherwise they flock in three dimensions, perceiving one another
+     * through a grid rather than the overlay.
+     */
+    public int     depth                        = 0;
+    public long    seed                         = 667;
+    /**
+     * The seed of the boids' random streams, each keyed by it and the boid's id
+     */
+    public long    boidSeed                     = 666;
+    public int     numOfPredators               = 2;
+    public int     numOfPrey                    = 24;
+    /**
+     * The prey born per prey per tick, slowing as the prey approach the
+     * carrying capacity. Zero disables births.
+     */
+    public double  preyBirthRate                = 0.0;
+    /**
+     * The carrying capacity of the field for prey. Zero is the initial number
+     * of prey.
+     */
+    public int     preyCapacity                 = 0;
+    /**
+     * The number of threads steering the boids in a two phase tick. Zero steps
+     * the boids one at a time as events.
+     */
+    public int     parallelism                  = 0;
+    /**
+     * The period, in seconds, of the tick metrics log line. Zero disables it.
+     */
+    public int     metricsLogPeriod             = 0;
+    /**
+     * The most ticks a single step of a boid with no one in its area of interest
+     * may cover. One steps every boid every tick.
+     */
+    public int     maximumStride                = 1;
+    /**
+     * The ticks a step covers for boids with flock mates but no predators, prey
+     * or target, up to the maximum stride
+     */
+    public int     cruisingStride               = 1;
+    /**
+     * Each boid schedules its own next step as an event, as many ticks later as
+     * its stride, rather than every boid being stepped every tick. Takes
+     * precedence over parallelism.
+     */
+    public boolean selfScheduling               = false;
+    public int     maximumPredatorFlockDistance = 100 * scale;
+    public int     maximumPreyFlockDistance     = 20 * scale;
+    public int     maxPredatorSpeed             = 3 * scale;
+    public int     maxPredatorChaseSpeed        = 5 * scale;
+    public int     maxPreySpeed                 = 4 * scale;
+    public int     predatorAoiRadius            = 200 * scale;
+    public int     predatorCatchDistance        = 5 * scale;
+    public double  predatorCohesionChange       = 0.0001;
+    public double  predatorFleeChange           = 0.04;
+    public double  predatorHuntChange           = 0.01;
+    public double  predatorRandomChange         = 0.0;
+    public double  predatorRepellerChange       = 0.001;
+    public int     predatorSeekRadius           = 100 * scale;
+    public double  predatorVelocityMatchChange  = 0.001;
+    public int     preyAoiRadius                = 100 * scale;
+    public double  preyCohesionChange           = 0.002;
+    public double  preyRandomChange             = 0.003;
+    public double  preyRepellerChange           = 0.002;
+    public int     preyScareDistance            = 80 * scale;
+    public double  preyVelocityMatchChange      = 0.002;
+    /**
+     * Index each boid's flock in a uniform grid for separation
+     */
+    public boolean separationGrid               = false;
+    /**
+     * Maintain each boid's close flock mates as their moves are delivered, so
+     * separation does not search the flock at all. Requires a maximum stride
+     * of 1
+     */
+    public boolean trackCloseNeighbors          = false;
+    /**
+     * Scan each boid's flock for separation from primitive arrays, with the
+     * Vector API when built with the vector profile and the jdk.incubator.vector
+     * module is present
+     */
+    public boolean vectorSeparation             = false;
+
+    /**
+     * @return the extent of the simulated field, in field units
+     */
+    public Point3i field() {
+        return new Point3i(width * scale, height * scale, depth * scale);
+    }
+}
@@ -0,0 +1,326 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.hellblazer.boids.engine;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.vecmath.Point3i;
+
+import com.hellblazer.boids.Animation;
+import com.hellblazer.boids.BoidImpl;
+import com.hellblazer.boids.Predator;
+import com.hellblazer.geometry.Vector3i;
+import com.hellblazer.primeMover.runtime.Framework;
+import com.hellblazer.thoth.Perceiving;
+import com.hellblazer.thoth.impl.Perceptron;
+
+/**
+ * One strip of a {@link ShardedSimulation}: a simulation, with its own
+ * controller and overlay, of the boids whose x lies within [minX, maxX).
+ * <p>
+ * The boids of the other shards within the margin of the strip are mirrored
+ * here as ghosts. A ghost is perceived like any other boid, but is never
+ * stepped; it only moves when its owner reports it has. A ghost eaten here is
+ * a kill reported to its owner.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class Shard extends Simulation {
+    /**
+     * What a shard hands the others after a tick: the boids that have left its
+     * strip, the boids within the margin of its edges and the ids of the ghosts
+     * eaten
+     */
+    public record Exchange(List<Checkpoint.BoidState> emigrants, List<Checkpoint.BoidState> border,
+                           List<Integer> kills) {
+    }
+
+    protected final Map<Integer, Perceptron<BoidImpl<?>>> ghosts  = new HashMap<>();
+    protected final List<Integer>                         kills   = new ArrayList<>();
+    protected final int                                   margin;
+    protected final int                                   maxX;
+    protected final int                                   minX;
+    protected final Map<Integer, Perceptron<BoidImpl<?>>> owned   = new HashMap<>();
+    protected final Vector3i                              scratch = new Vector3i();
+
+    public Shard(Parameters parameters, int minX, int maxX, int margin) {
+        super(parameters);
+        if (minX >= maxX || margin < 0) {
+            throw new IllegalArgumentException("Invalid strip: " + minX + ", " + maxX + ", " + margin);
+        }
+        this.minX = minX;
+        this.maxX = maxX;
+        this.margin = margin;
+    }
+
+    /**
+     * Take in what the other shards handed over: the boids that have entered our
+     * strip, the boids near it and the kills of our boids. Ghosts no longer near
+     * the strip leave the overlay. The resulting events are delivered before
+     * returning, without advancing the simulated time, and the boids that
+     * arrived are told the velocities of the flock mates they noticed.
+     */
+    public void accept(List<Checkpoint.BoidState> immigrants, List<Checkpoint.BoidState> border,
+                       Set<Integer> killed) {
+        Framework.setController(controller);
+        synchronized (sync) {
+            long time = controller.getCurrentTime();
+            List<BoidImpl<?>> arrived = new ArrayList<>(immigrants.size());
+            for (Checkpoint.BoidState state : immigrants) {
+                Perceptron<BoidImpl<?>> ghost = ghosts.remove(state.id());
+                if (ghost != null) {
+                    ghost.leave();
+                }
+                Perceptron<BoidImpl<?>> perceptron = admit(state);
+                BoidImpl<?> boid = perceptron.getSim();
+                boid.getRandom().setDraws(state.draws());
+                boid.setPace(state.stride(), state.delay());
+                if (boid instanceof Predator<?, ?> predator) {
+                    predator.restore(state.stamina(), null);
+                }
+                join(perceptron);
+                arrived.add(boid);
+            }
+            if (!killed.isEmpty()) {
+                for (Integer id : killed) {
+                    Perceptron<BoidImpl<?>> perceptron = owned.get(id);
+                    if (perceptron != null) {
+                        died(perceptron.getSim());
+                    }
+                }
+                bury();
+            }
+            Set<Integer> near = new HashSet<>();
+            for (Checkpoint.BoidState state : border) {
+                near.add(state.id());
+                Perceptron<BoidImpl<?>> ghost = ghosts.get(state.id());
+                if (ghost == null) {
+                    ghost = admit(state);
+                    detach(ghost);
+                    join(ghost);
+                    ghosts.put(state.id(), ghost);
+                } else {
+                    mirror(ghost, state);
+                }
+            }
+            for (Iterator<Perceptron<BoidImpl<?>>> i = ghosts.values().iterator(); i.hasNext();) {
+                Perceptron<BoidImpl<?>> ghost = i.next();
+                if (!near.contains(ghost.getSim().getId())) {
+                    i.remove();
+                    ghost.leave();
+                }
+            }
+            try {
+                controller.step();
+            } catch (Throwable e) {
+                throw new IllegalStateException("Unable to step controller", e);
+            }
+            controller.setCurrentTime(time);
+            for (BoidImpl<?> boid : arrived) {
+                boid.getBehavior().restoreVelocities(mate -> ((BoidImpl<?>) mate).getVelocity());
+            }
+        }
+    }
+
+    /**
+     * A ghost eaten here is reported to its owner, which buries it; the ghost
+     * itself leaves once its owner stops reporting it
+     */
+    @Override
+    public void died(Perceiving deceased) {
+        if (deceased instanceof BoidImpl<?> boid) {
+            Perceptron<BoidImpl<?>> ghost = ghosts.get(boid.getId());
+            if (ghost != null && ghost.getSim() == boid) {
+                synchronized (sync) {
+                    kills.add(boid.getId());
+                }
+                return;
+            }
+        }
+        super.died(deceased);
+    }
+
+    /**
+     * Hand over the boids that have left the strip, which leave our overlay, and
+     * report those within the margin of its edges and the ghosts eaten
+     */
+    public Exchange export() {
+        Framework.setController(controller);
+        synchronized (sync) {
+            List<Checkpoint.BoidState> emigrants = new ArrayList<>();
+            List<Checkpoint.BoidState> border = new ArrayList<>();
+            export(prey, Snapshot.PREY, emigrants, border);
+            export(predators, Snapshot.PREDATOR, emigrants, border);
+            Exchange exchange = new Exchange(emigrants, border, new ArrayList<>(kills));
+            kills.clear();
+            return exchange;
+        }
+    }
+
+    /**
+     * @return the number of ghosts mirrored here
+     */
+    public int getGhosts() {
+        synchronized (sync) {
+            return ghosts.size();
+        }
+    }
+
+    public int getMaxX() {
+        return maxX;
+    }
+
+    public int getMinX() {
+        return minX;
+    }
+
+    /**
+     * Create our share of the population a single simulation with the same
+     * parameters would create, and join it to the overlay. Every boid's draws
+     * are made, so ours are the same as the single simulation's, but only ours
+     * are built.
+     */
+    @Override
+    public void init() {
+        Framework.setController(controller);
+        controller.setCurrentTime(0);
+        for (int i = 0; i < parameters.numOfPrey; i++) {
+            Newborn newborn = newborn(parameters.maxPreySpeed);
+            if (owns(newborn.position().x)) {
+                join(makePrey(i, newborn.position(), newborn.velocity(), newborn.color()));
+            }
+        }
+        for (int i = 0; i < parameters.numOfPredators; i++) {
+            Newborn newborn = newborn(parameters.maxPredatorSpeed);
+            if (owns(newborn.position().x)) {
+                join(makePredator(i + parameters.numOfPrey, newborn.position(), newborn.velocity(),
+                                  newborn.color()));
+            }
+        }
+    }
+
+    /**
+     * @return true if a boid at x, owned by another shard, is ghosted here
+     */
+    public boolean isNear(int x) {
+        return !owns(x) && x + margin >= minX && x - margin < maxX;
+    }
+
+    /**
+     * @return true if a boid at x belongs to this shard
+     */
+    public boolean owns(int x) {
+        return x >= minX && x < maxX;
+    }
+
+    /**
+     * @return a new boid in the state, in the population and not yet joined
+     */
+    protected Perceptron<BoidImpl<?>> admit(Checkpoint.BoidState state) {
+        Point3i position = new Point3i(state.x(), state.y(), state.z());
+        Vector3i velocity = new Vector3i(state.vx(), state.vy(), state.vz());
+        Color color = new Color(state.color());
+        return state.species() == Snapshot.PREDATOR ? makePredator(state.id(), position, velocity, color)
+                                                    : makePrey(state.id(), position, velocity, color);
+    }
+
+    /**
+     * Forget the dead of the tick, then bury them
+     */
+    @Override
+    protected void bury() {
+        for (Perceiving deceased : dead) {
+            if (deceased instanceof BoidImpl<?> boid && perceptrons.containsKey(boid)) {
+                owned.remove(boid.getId());
+            }
+        }
+        super.bury();
+    }
+
+    /**
+     * Remove the boid from the population, leaving it in the overlay, if joined
+     */
+    protected void detach(Perceptron<BoidImpl<?>> perceptron) {
+        if (prey.remove(perceptron) == null) {
+            predators.remove(perceptron);
+        }
+        perceptrons.remove(perceptron.getSim());
+    }
+
+    protected void export(Map<Perceptron<BoidImpl<?>>, Animation> boids, int species,
+                          List<Checkpoint.BoidState> emigrants, List<Checkpoint.BoidState> border) {
+        for (Iterator<Map.Entry<Perceptron<BoidImpl<?>>, Animation>> i = boids.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<Perceptron<BoidImpl<?>>, Animation> entry = i.next();
+            Perceptron<BoidImpl<?>> perceptron = entry.getKey();
+            int x = perceptron.getLocation().x;
+            if (owns(x)) {
+                if (x - margin < minX || x + margin >= maxX) {
+                    border.add(capture(perceptron, entry.getValue(), species));
+                }
+            } else {
+                emigrants.add(capture(perceptron, entry.getValue(), species));
+                owned.remove(perceptron.getSim().getId());
+                i.remove();
+                perceptrons.remove(perceptron.getSim());
+                tally(perceptron.getSim());
+                perceptron.getSim().retire();
+                perceptron.leave();
+            }
+        }
+    }
+
+    /**
+     * Join the overlay through the member nearest the newcomer, the ghosts
+     * included, or found it. Our own boids are indexed by id.
+     */
+    @Override
+    protected void join(Perceptron<BoidImpl<?>> perceptron) {
+        perceptron.join(nearer(perceptron, nearer(perceptron, perceptron, perceptrons.values()), ghosts.values()));
+        if (perceptrons.containsKey(perceptron.getSim())) {
+            owned.put(perceptron.getSim().getId(), perceptron);
+        }
+    }
+
+    /**
+     * Move the ghost to where its owner reports the boid. Neighbors take the
+     * vector a boid moves by as its velocity, so the ghost moves to one velocity
+     * short of the report, then by the reported velocity, as its owner last
+     * moved. Every report is a move, even if the ghost has not moved.
+     */
+    protected void mirror(Perceptron<BoidImpl<?>> ghost, Checkpoint.BoidState state) {
+        Vector3i velocity = ghost.getSim().getVelocity();
+        velocity.set(state.vx(), state.vy(), state.vz());
+        Point3i location = ghost.getLocation();
+        scratch.set(state.x() - velocity.x - location.x, state.y() - velocity.y - location.y,
+                    state.z() - velocity.z - location.z);
+        if (scratch.x != 0 || scratch.y != 0 || scratch.z != 0) {
+            ghost.moveBy(scratch);
+        }
+        ghost.moveBy(velocity);
+    }
+}
@@ -0,0 +1,284 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.hellblazer.boids.engine;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+import com.hellblazer.boids.engine.Simulation.Throughput;
+
+/**
+ * A headless simulation of the field partitioned into vertical strips, each a
+ * {@link Shard} with its own controller and overlay, ticked on its own thread.
+ * <p>
+ * After every shard has ticked, the shards exchange the boids that crossed into
+ * another strip, which migrate to its owner, the boids within the margin of
+ * another strip, which are mirrored there as ghosts, and the ghosts eaten,
+ * which are buried by their owners. The margin covers the largest area of
+ * interest and the farthest a boid may move in a step, so a boid perceives the
+ * ghosts of every boid in its area of interest, as of the end of the previous
+ * tick.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class ShardedSimulation implements AutoCloseable {
+    /**
+     * Run a headless sharded simulation from the command line.
+     *
+     * <pre>
+     * ShardedSimulation [prey] [predators] [seconds] [shards]
+     * </pre>
+     */
+    public static void main(String[] args) {
+        var parameters = new Parameters();
+        if (args.length > 0) {
+            parameters.numOfPrey = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            parameters.numOfPredators = Integer.parseInt(args[1]);
+        }
+        var budget = Duration.ofSeconds(args.length > 2 ? Long.parseLong(args[2]) : 10);
+        int count = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        try (var simulation = new ShardedSimulation(parameters, count)) {
+            long start = System.nanoTime();
+            simulation.init();
+            System.out.println(String.format("Populated %,d prey and %,d predators in %d shards in %,d ms",
+                                             parameters.numOfPrey, parameters.numOfPredators, count,
+                                             (System.nanoTime() - start) / 1_000_000));
+            System.out.println(simulation.run(budget));
+            for (Shard shard : simulation.getShards()) {
+                System.out.println(String.format("[%,d, %,d): %,d boids, %,d ghosts", shard.getMinX(),
+                                                 shard.getMaxX(), shard.getPrey().size()
+                                                 + shard.getPredators().size(), shard.getGhosts()));
+            }
+        }
+    }
+
+    protected final ExecutorService executor;
+    protected final Parameters      parameters;
+    protected final List<Shard>     shards;
+    protected long                  ticks;
+
+    public ShardedSimulation(Parameters parameters, int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("There must be at least one shard");
+        }
+        if (parameters.selfScheduling) {
+            throw new IllegalArgumentException("Self scheduling boids cannot be sharded");
+        }
+        if (parameters.preyBirthRate > 0.0) {
+            throw new IllegalArgumentException("Births cannot be sharded");
+        }
+        this.parameters = parameters;
+        int width = parameters.field().x;
+        int reach = parameters.maxPredatorChaseSpeed * parameters.maximumStride;
+        int margin = Math.max(parameters.preyAoiRadius, parameters.predatorAoiRadius) + reach;
+        shards = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            // the outer strips extend to anything that strays off the field
+            int minX = i == 0 ? Integer.MIN_VALUE : (int) ((long) width * i / count);
+            int maxX = i == count - 1 ? Integer.MAX_VALUE : (int) ((long) width * (i + 1) / count);
+            shards.add(new Shard(parameters, minX, maxX, margin));
+        }
+        executor = Executors.newFixedThreadPool(count);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        for (Shard shard : shards) {
+            shard.close();
+        }
+    }
+
+    public Parameters getParameters() {
+        return parameters;
+    }
+
+    public List<Shard> getShards() {
+        return Collections.unmodifiableList(shards);
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Create the population, each shard its own share, then mirror the ghosts
+     */
+    public void init() {
+        exchange(invoke(i -> {
+            Shard shard = shards.get(i);
+            shard.init();
+            return shard.export();
+        }));
+    }
+
+    /**
+     * Run the simulation until the wall clock budget is exhausted
+     *
+     * @param budget
+     * @return the throughput achieved
+     */
+    public Throughput run(Duration budget) {
+        long start = System.nanoTime();
+        long deadline = start + budget.toNanos();
+        long count = 0;
+        long now;
+        do {
+            tick();
+            count++;
+            now = System.nanoTime();
+        } while (now < deadline);
+        return new Throughput(count, now - start);
+    }
+
+    /**
+     * Run the simulation for a fixed number of ticks
+     *
+     * @param count
+     * @return the throughput achieved
+     */
+    public Throughput run(long count) {
+        long start = System.nanoTime();
+        for (long i = 0; i < count; i++) {
+            tick();
+        }
+        return new Throughput(count, System.nanoTime() - start);
+    }
+
+    /**
+     * @return an immutable snapshot of the population of every shard as of the
+     *         last tick
+     */
+    public Snapshot snapshot() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.getPrey().size() + shard.getPredators().size();
+        }
+        Snapshot.Builder builder = new Snapshot.Builder(ticks, size);
+        for (Shard shard : shards) {
+            synchronized (shard.getSync()) {
+                shard.capture(builder, shard.prey, Snapshot.PREY);
+            }
+        }
+        for (Shard shard : shards) {
+            synchronized (shard.getSync()) {
+                shard.capture(builder, shard.predators, Snapshot.PREDATOR);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Advance every shard by one tick, concurrently, then exchange their
+     * migrants, ghosts and kills
+     */
+    public void tick() {
+        exchange(invoke(i -> {
+            Shard shard = shards.get(i);
+            shard.tick();
+            return shard.export();
+        }));
+        ticks++;
+    }
+
+    /**
+     * Route what each shard handed over: migrants to the shard owning their new
+     * position, border boids to every shard they are near, and kills to all,
+     * each burying the boids it owns
+     */
+    protected void exchange(List<Shard.Exchange> exchanges) {
+        List<List<Checkpoint.BoidState>> immigrants = new ArrayList<>(shards.size());
+        List<List<Checkpoint.BoidState>> borders = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            immigrants.add(new ArrayList<>());
+            borders.add(new ArrayList<>());
+        }
+        Set<Integer> killed = new HashSet<>();
+        for (Shard.Exchange exchange : exchanges) {
+            killed.addAll(exchange.kills());
+            for (Checkpoint.BoidState state : exchange.emigrants()) {
+                immigrants.get(ownerOf(state.x())).add(state);
+            }
+            for (Checkpoint.BoidState state : exchange.border()) {
+                for (int i = 0; i < shards.size(); i++) {
+                    if (shards.get(i).isNear(state.x())) {
+                        borders.get(i).add(state);
+                    }
+                }
+            }
+        }
+        invoke(i -> {
+            shards.get(i).accept(immigrants.get(i), borders.get(i), killed);
+            return null;
+        });
+    }
+
+    /**
+     * Perform the task for every shard, each on its own thread
+     *
+     * @return the results in shard order
+     */
+    protected <T> List<T> invoke(IntFunction<T> task) {
+        List<Callable<T>> tasks = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            int index = i;
+            tasks.add(() -> task.apply(index));
+        }
+        try {
+            List<T> results = new ArrayList<>(tasks.size());
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Shard failed", e.getCause());
+                }
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the shards", e);
+        }
+    }
+
+    /**
+     * @return the index of the shard owning x
+     */
+    protected int ownerOf(int x) {
+        for (int i = 0; i < shards.size(); i++) {
+            if (shards.get(i).owns(x)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("No shard owns " + x);
+    }
+}
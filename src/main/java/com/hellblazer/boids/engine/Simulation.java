@@ -0,0 +1,919 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.boids.engine;
+
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+import javax.vecmath.Point3i;
+
+import jdk.jfr.EventType;
+
+import com.hellblazer.boids.Animation;
+import com.hellblazer.boids.BoidImpl;
+import com.hellblazer.boids.God;
+import com.hellblazer.boids.Predator;
+import com.hellblazer.boids.Prey;
+import com.hellblazer.boids.RandomStream;
+import com.hellblazer.boids.behavior.FlockingBehavior.FlockState;
+import com.hellblazer.boids.behavior.FlockingPrey;
+import com.hellblazer.boids.behavior.Interaction;
+import com.hellblazer.boids.behavior.PredatorPack;
+import com.hellblazer.boids.behavior.SeparationKernel;
+import com.hellblazer.boids.behavior.SpeciesRegistry;
+import com.hellblazer.boids.engine.TickMetrics.Phase;
+import com.hellblazer.boids.jfr.DiedEvent;
+import com.hellblazer.boids.jfr.StepEvent;
+import com.hellblazer.boids.record.TrajectoryRecorder;
+import com.hellblazer.geometry.Vector3i;
+import com.hellblazer.primeMover.Kronos;
+import com.hellblazer.primeMover.controllers.SteppingController;
+import com.hellblazer.primeMover.runtime.Framework;
+import com.hellblazer.thoth.Perceiving;
+import com.hellblazer.thoth.impl.Perceptron;
+
+/**
+ * A headless predator/prey simulation. The population is the same one the
+ * Swing view builds; the controller is driven in a tight loop rather than from
+ * a display timer, so the model runs as fast as the CPU allows.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class Simulation implements God, AutoCloseable {
+    public record Throughput(long ticks, long nanos) {
+        public double ticksPerSecond() {
+            return nanos == 0 ? 0.0 : ticks * 1_000_000_000.0 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d ticks in %,.3f s (%,.1f ticks/s)", ticks, nanos / 1_000_000_000.0,
+                                 ticksPerSecond());
+        }
+    }
+
+    /**
+     * The position, velocity and color of a boid about to be born, drawn from
+     * the simulation's generator
+     */
+    protected record Newborn(Point3i position, Vector3i velocity, Color color) {
+    }
+
+    /**
+     * The simulated time of a tick
+     */
+    public static final long TICK_TIME = 1000;
+
+    private static final EventType DIED = EventType.getEventType(DiedEvent.class);
+    private static final EventType STEP = EventType.getEventType(StepEvent.class);
+
+    /**
+     * Run a headless simulation from the command line.
+     *
+     * <pre>
+     * Simulation [prey] [predators] [seconds] [threads] [trajectory directory]
+     * </pre>
+     */
+    public static void main(String[] args) throws IOException {
+        var parameters = new Parameters();
+        if (args.length > 0) {
+            parameters.numOfPrey = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            parameters.numOfPredators = Integer.parseInt(args[1]);
+        }
+        var budget = Duration.ofSeconds(args.length > 2 ? Long.parseLong(args[2]) : 10);
+        if (args.length > 3) {
+            parameters.parallelism = Integer.parseInt(args[3]);
+        }
+        parameters.metricsLogPeriod = 5;
+        try (var simulation = new Simulation(parameters)) {
+            simulation.getMetrics().register("headless");
+            long start = System.nanoTime();
+            simulation.init();
+            System.out.println(String.format("Populated %,d prey and %,d predators in %,d ms", parameters.numOfPrey,
+                                             parameters.numOfPredators, (System.nanoTime() - start) / 1_000_000));
+            if (args.length > 4) {
+                try (var recorder = new TrajectoryRecorder(Path.of(args[4]), simulation.getField())) {
+                    recorder.accept(simulation.snapshot());
+                    System.out.println(simulation.run(budget, recorder));
+                    if (recorder.getDropped() > 0) {
+                        System.out.println(String.format("Dropped %,d ticks while the recorder was behind",
+                                                         recorder.getDropped()));
+                    }
+                }
+            } else {
+                System.out.println(simulation.run(budget));
+            }
+        }
+    }
+
+    protected long                                           boidSeed;
+    protected final List<BoidImpl<?>>                        boids        = new ArrayList<>();
+    protected final SteppingController                       controller;
+    protected final List<Perceiving>                         dead         = new ArrayList<>();
+    protected final Vector3i                                 displacement = new Vector3i();
+    protected double                                         fertility;
+    protected final Point3i                                  field;
+    protected final Parameters                               parameters;
+    protected final TickMetrics                              metrics;
+    protected int                                            nextId;
+    protected final Deque<Perceptron<BoidImpl<?>>>           nursery      = new ArrayDeque<>();
+    protected long                                           pastFades;
+    protected long                                           pastMoves;
+    protected long                                           pastNotices;
+    protected final Map<Perceiving, Perceptron<BoidImpl<?>>> perceptrons  = new IdentityHashMap<>();
+    protected final ForkJoinPool                             pool;
+    protected final Map<Perceptron<BoidImpl<?>>, Animation>  predators    = new LinkedHashMap<>();
+    protected final Map<Perceptron<BoidImpl<?>>, Animation>  prey         = new LinkedHashMap<>();
+    protected Random                                         random;
+    protected final SpeciesRegistry                          registry;
+    protected final GridPerceptron.Space                     space;
+    protected boolean                                        stepping;
+    protected final Object                                   sync         = new Object();
+    protected long                                           ticks;
+
+    public Simulation(Parameters parameters) {
+        if (parameters.trackCloseNeighbors && parameters.maximumStride > 1) {
+            // a mate's move covering several ticks leaves the close mates stale
+            throw new IllegalArgumentException("Close neighbors cannot be tracked with strides");
+        }
+        this.parameters = parameters;
+        this.field = parameters.field();
+        this.random = new Random(parameters.seed);
+        this.boidSeed = parameters.boidSeed;
+        this.controller = new SteppingController();
+        this.pool = parameters.parallelism > 0 ? new ForkJoinPool(parameters.parallelism) : null;
+        this.metrics = new TickMetrics(this::census);
+        metrics.setLogPeriod(parameters.metricsLogPeriod);
+        this.registry = createSpecies();
+        this.space = field.z > 0 ? new GridPerceptron.Space(Math.max(parameters.preyAoiRadius,
+                                                                     parameters.predatorAoiRadius))
+                                 : null;
+    }
+
+    /**
+     * @return the events delivered to the boids since the start, and the
+     *         population and flock sizes of the living boids
+     */
+    public TickMetrics.Census census() {
+        synchronized (sync) {
+            long notices = pastNotices;
+            long moves = pastMoves;
+            long fades = pastFades;
+            for (Perceptron<BoidImpl<?>> perceptron : nursery) {
+                BoidImpl<?> boid = perceptron.getSim();
+                notices += boid.getNotices();
+                moves += boid.getMoves();
+                fades += boid.getFades();
+            }
+            long flocked = 0;
+            int maximum = 0;
+            for (Perceptron<BoidImpl<?>> perceptron : perceptrons.values()) {
+                BoidImpl<?> boid = perceptron.getSim();
+                notices += boid.getNotices();
+                moves += boid.getMoves();
+                fades += boid.getFades();
+                int size = boid.getBehavior().getFlockSize();
+                flocked += size;
+                maximum = Math.max(maximum, size);
+            }
+            int population = perceptrons.size();
+            return new TickMetrics.Census(population, notices, moves, fades,
+                                          population == 0 ? 0.0 : (double) flocked / population, maximum);
+        }
+    }
+
+    /**
+     * @return the state of the simulation as of the last tick
+     */
+    public Checkpoint checkpoint() {
+        synchronized (sync) {
+            List<Checkpoint.BoidState> states = new ArrayList<>(prey.size() + predators.size());
+            capture(states, prey, Snapshot.PREY);
+            capture(states, predators, Snapshot.PREDATOR);
+            return new Checkpoint(ticks, controller.getCurrentTime(), boidSeed, copy(random),
+                                  states);
+        }
+    }
+
+    /**
+     * Shut down the threads steering the boids, if any
+     */
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Record the death. The dead are only removed from the simulation at the end
+     * of the tick, so the population is never modified while it is being stepped.
+     */
+    @Override
+    public void died(Perceiving deceased) {
+        if (DIED.isEnabled() && deceased instanceof BoidImpl<?> boid) {
+            DiedEvent event = new DiedEvent();
+            event.begin();
+            event.complete(boid.getId(), deceased.getClass().getSimpleName(), boid.getBehavior().getFlockSize());
+        }
+        synchronized (sync) {
+            dead.add(deceased);
+        }
+    }
+
+    public SteppingController getController() {
+        return controller;
+    }
+
+    public Point3i getField() {
+        return field;
+    }
+
+    public TickMetrics getMetrics() {
+        return metrics;
+    }
+
+    public Parameters getParameters() {
+        return parameters;
+    }
+
+    public Map<Perceptron<BoidImpl<?>>, Animation> getPredators() {
+        return Collections.unmodifiableMap(predators);
+    }
+
+    public Map<Perceptron<BoidImpl<?>>, Animation> getPrey() {
+        return Collections.unmodifiableMap(prey);
+    }
+
+    /**
+     * @return the species and their interactions
+     */
+    public SpeciesRegistry getSpecies() {
+        return registry;
+    }
+
+    /**
+     * @return the lock held while the simulation is ticking
+     */
+    public Object getSync() {
+        return sync;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Create the prey and predators and join them to the overlay
+     */
+    public void init() {
+        Framework.setController(controller);
+        controller.setCurrentTime(0);
+
+        Perceptron<?> gateway = null;
+        for (int i = 0; i < parameters.numOfPrey; i++) {
+            Perceptron<BoidImpl<?>> boid = makePrey(i);
+            if (i == 0) {
+                gateway = boid;
+            }
+            boid.join(gateway);
+        }
+
+        for (int i = 0; i < parameters.numOfPredators; i++) {
+            Perceptron<BoidImpl<?>> boid = makePredator(i + parameters.numOfPrey);
+            boid.join(gateway);
+        }
+        nextId = parameters.numOfPrey + parameters.numOfPredators;
+    }
+
+    /**
+     * Recreate the simulation from a checkpoint, in place of {@link #init()}.
+     * <p>
+     * The overlay cannot be bulk loaded, so the boids still join one at a time,
+     * but in Z order, each through the boid joined before it. The gateway is
+     * then always close by, and the join does not have to route across the
+     * whole overlay. Once the boids have noticed one another, their flocks are
+     * told the velocities they would otherwise only learn on the next move.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void restore(Checkpoint checkpoint) {
+        Framework.setController(controller);
+        controller.setCurrentTime(checkpoint.getTime());
+        boidSeed = checkpoint.getBoidSeed();
+        random = copy(checkpoint.getRandom());
+        ticks = checkpoint.getTick();
+
+        List<Checkpoint.BoidState> states = checkpoint.getBoids();
+        Perceptron[] joining = new Perceptron[states.size()];
+        Map<Integer, BoidImpl<?>> byId = new HashMap<>();
+        for (int i = 0; i < states.size(); i++) {
+            Checkpoint.BoidState state = states.get(i);
+            Point3i position = new Point3i(state.x(), state.y(), state.z());
+            Vector3i velocity = new Vector3i(state.vx(), state.vy(), state.vz());
+            Color color = new Color(state.color());
+            joining[i] = state.species() == Snapshot.PREDATOR ? makePredator(state.id(), position, velocity, color)
+                                                               : makePrey(state.id(), position, velocity, color);
+            byId.put(state.id(), (BoidImpl<?>) joining[i].getSim());
+            byId.get(state.id()).getRandom().setDraws(state.draws());
+            nextId = Math.max(nextId, state.id() + 1);
+        }
+        Arrays.sort(joining, Comparator.comparingLong(p -> zOrder(((Perceptron<?>) p).getLocation())));
+        Perceptron<?> gateway = null;
+        for (Perceptron perceptron : joining) {
+            perceptron.join(gateway == null ? perceptron : gateway);
+            gateway = perceptron;
+        }
+        try {
+            controller.step();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Unable to step controller", e);
+        }
+        controller.setCurrentTime(checkpoint.getTime());
+
+        for (Checkpoint.BoidState state : states) {
+            Set<Integer> unmoved = new HashSet<>(state.unmoved());
+            byId.get(state.id()).getBehavior().restoreVelocities(mate -> {
+                BoidImpl<?> boid = (BoidImpl<?>) mate;
+                return unmoved.contains(boid.getId()) ? null : boid.getVelocity();
+            });
+        }
+        for (Checkpoint.BoidState state : states) {
+            // noticing the neighbors on joining reset the pace
+            byId.get(state.id()).setPace(state.stride(), state.delay());
+            if (state.species() == Snapshot.PREDATOR) {
+                ((Predator) byId.get(state.id())).restore(state.stamina(), byId.get(state.target()));
+            }
+        }
+    }
+
+    /**
+     * Run the simulation until the wall clock budget is exhausted
+     *
+     * @param budget
+     * @return the throughput achieved
+     */
+    public Throughput run(Duration budget) {
+        return run(budget, null);
+    }
+
+    /**
+     * Run the simulation until the wall clock budget is exhausted, passing a
+     * snapshot of every tick to the observer
+     *
+     * @param budget
+     * @param observer - may be null
+     * @return the throughput achieved
+     */
+    public Throughput run(Duration budget, Consumer<Snapshot> observer) {
+        long start = System.nanoTime();
+        long deadline = start + budget.toNanos();
+        long count = 0;
+        long now;
+        do {
+            tick();
+            if (observer != null) {
+                observer.accept(snapshot());
+            }
+            count++;
+            now = System.nanoTime();
+        } while (now < deadline);
+        return new Throughput(count, now - start);
+    }
+
+    /**
+     * Run the simulation for a fixed number of ticks
+     *
+     * @param count
+     * @return the throughput achieved
+     */
+    public Throughput run(long count) {
+        long start = System.nanoTime();
+        for (long i = 0; i < count; i++) {
+            tick();
+        }
+        return new Throughput(count, System.nanoTime() - start);
+    }
+
+    /**
+     * @return an immutable snapshot of the population as of the last tick
+     */
+    public Snapshot snapshot() {
+        synchronized (sync) {
+            Snapshot.Builder builder = new Snapshot.Builder(ticks, prey.size() + predators.size());
+            capture(builder, prey, Snapshot.PREY);
+            capture(builder, predators, Snapshot.PREDATOR);
+            return builder.build();
+        }
+    }
+
+    /**
+     * Advance the simulation by one tick: step every boid, then deliver the
+     * resulting events.
+     * <p>
+     * When the boids schedule their own steps, a tick instead processes the
+     * next simulated time at which anything happens, counting any ticks in
+     * which nothing did.
+     */
+    public void tick() {
+        Framework.setController(controller);
+        synchronized (sync) {
+            long start = System.nanoTime();
+            long time = controller.getCurrentTime();
+            long mark = start;
+            if (parameters.selfScheduling) {
+                if (!stepping) {
+                    Kronos.sleep(TICK_TIME);
+                    startStepping();
+                }
+            } else if (pool == null) {
+                Kronos.sleep(TICK_TIME);
+                for (Perceptron<BoidImpl<?>> p : predators.keySet()) {
+                    if (p.getSim().dueThisTick()) {
+                        p.getSim().step();
+                    }
+                }
+                mark = metrics.record(Phase.PREDATORS, mark);
+                for (Perceptron<BoidImpl<?>> p : prey.keySet()) {
+                    if (p.getSim().dueThisTick()) {
+                        p.getSim().step();
+                    }
+                }
+                mark = metrics.record(Phase.PREY, mark);
+            } else {
+                Kronos.sleep(TICK_TIME);
+                steerAndCommit();
+                mark = System.nanoTime();
+            }
+            try {
+                controller.step();
+            } catch (Throwable e) {
+                throw new IllegalStateException("Unable to step controller", e);
+            }
+            mark = metrics.record(Phase.EVENTS, mark);
+            bury();
+            breed();
+            metrics.record(Phase.BURY, mark);
+            ticks += stepping ? Math.max(1, (controller.getCurrentTime() - time) / TICK_TIME) : 1;
+            metrics.tick(start);
+        }
+    }
+
+    /**
+     * Breed prey at the birth rate, slowing as they approach the carrying
+     * capacity. The newborns are placed at random, recycling the dead where
+     * possible, so a long run at capacity allocates no boids.
+     */
+    protected void breed() {
+        if (parameters.preyBirthRate <= 0.0 || prey.isEmpty()) {
+            return;
+        }
+        int capacity = parameters.preyCapacity > 0 ? parameters.preyCapacity : parameters.numOfPrey;
+        int population = prey.size();
+        fertility += parameters.preyBirthRate * population * Math.max(0.0, 1.0 - (double) population / capacity);
+        int born = 0;
+        while (fertility >= 1.0) {
+            fertility -= 1.0;
+            Perceptron<BoidImpl<?>> newborn = makePrey(nextId++);
+            join(newborn);
+            if (stepping) {
+                newborn.getSim().startStepping(TICK_TIME);
+            }
+            born++;
+        }
+        metrics.born(born);
+    }
+
+    /**
+     * Remove the boids that died during the tick from the population and the
+     * overlay
+     */
+    protected void bury() {
+        if (dead.isEmpty()) {
+            return;
+        }
+        int buried = 0;
+        for (Perceiving deceased : dead) {
+            Perceptron<BoidImpl<?>> perceptron = perceptrons.remove(deceased);
+            if (perceptron == null) {
+                continue; // eaten more than once in the same tick
+            }
+            buried++;
+            if (prey.remove(perceptron) == null) {
+                predators.remove(perceptron);
+            }
+            perceptron.getSim().retire();
+            perceptron.leave();
+            if (parameters.preyBirthRate > 0.0 && perceptron.getSim() instanceof Prey<?, ?>) {
+                nursery.add(perceptron);
+            } else {
+                tally(perceptron.getSim());
+            }
+        }
+        dead.clear();
+        metrics.died(buried);
+    }
+
+    protected void capture(List<Checkpoint.BoidState> states, Map<Perceptron<BoidImpl<?>>, Animation> boids,
+                           int species) {
+        for (Map.Entry<Perceptron<BoidImpl<?>>, Animation> entry : boids.entrySet()) {
+            states.add(capture(entry.getKey(), entry.getValue(), species));
+        }
+    }
+
+    /**
+     * @return the state of the boid, as checkpointed
+     */
+    protected Checkpoint.BoidState capture(Perceptron<BoidImpl<?>> perceptron, Animation animation, int species) {
+        Point3i position = perceptron.getLocation();
+        BoidImpl<?> boid = perceptron.getSim();
+        Vector3i velocity = boid.getVelocity();
+        int stamina = 0;
+        int target = -1;
+        if (boid instanceof Predator<?, ?> predator) {
+            stamina = predator.getStamina();
+            if (predator.getTarget() instanceof BoidImpl<?> prey) {
+                target = prey.getId();
+            }
+        }
+        List<Integer> unmoved = new ArrayList<>();
+        for (Map.Entry<?, FlockState> entry : boid.getBehavior().getFlock().entrySet()) {
+            if (!entry.getValue().isVelocityKnown()) {
+                unmoved.add(((BoidImpl<?>) entry.getKey()).getId());
+            }
+        }
+        Collections.sort(unmoved);
+        return new Checkpoint.BoidState(boid.getId(), species, animation.getColor().getRGB(), position.x, position.y,
+                                        position.z, velocity.x, velocity.y, velocity.z, stamina, target,
+                                        boid.getRandom().getDraws(), boid.getStride(), boid.getDelay(), unmoved);
+    }
+
+    protected void capture(Snapshot.Builder builder, Map<Perceptron<BoidImpl<?>>, Animation> boids, int species) {
+        for (Map.Entry<Perceptron<BoidImpl<?>>, Animation> entry : boids.entrySet()) {
+            Point3i position = entry.getKey().getLocation();
+            BoidImpl<?> boid = entry.getKey().getSim();
+            Vector3i velocity = boid.getVelocity();
+            builder.add(boid.getId(), species, entry.getValue().getColor().getRGB(), position.x, position.y,
+                        position.z, velocity.x, velocity.y, velocity.z);
+        }
+    }
+
+    /**
+     * @return an independent generator in the same state as the random
+     */
+    protected Random copy(Random random) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(random);
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                return (Random) in.readObject();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Unable to copy random number generator", e);
+        }
+    }
+
+    /**
+     * A step of a quiet boid may cover several ticks, so the overlay must allow
+     * for moves of the maximum speed over the maximum stride. A field with depth
+     * is perceived through the grid instead.
+     */
+    protected Perceptron<BoidImpl<?>> createPerceptron(Point3i position, UUID id, BoidImpl<?> boid, int aoiRadius,
+                                                       int maximumSpeed) {
+        if (space != null) {
+            return new GridPerceptron<BoidImpl<?>>(space, boid, id, position, aoiRadius,
+                                                   maximumSpeed * parameters.maximumStride);
+        }
+        return new Perceptron<BoidImpl<?>>(boid, id, position, aoiRadius, maximumSpeed * parameters.maximumStride,
+                                           true);
+    }
+
+    /**
+     * @return the registry of prey and predators, with the snapshot species ids
+     */
+    protected SpeciesRegistry createSpecies() {
+        SpeciesRegistry species = new SpeciesRegistry();
+        species.register("prey");
+        species.register("predator");
+        species.set(Snapshot.PREY, Snapshot.PREY, Interaction.FLOCK);
+        species.set(Snapshot.PREY, Snapshot.PREDATOR, Interaction.FLEE);
+        species.set(Snapshot.PREDATOR, Snapshot.PREDATOR, Interaction.FLOCK);
+        species.set(Snapshot.PREDATOR, Snapshot.PREY, Interaction.HUNT);
+        return species;
+    }
+
+    /**
+     * Join the overlay through the member nearest the newcomer, or found it
+     */
+    protected void join(Perceptron<BoidImpl<?>> perceptron) {
+        perceptron.join(nearer(perceptron, perceptron, perceptrons.values()));
+    }
+
+    /**
+     * Choose a gateway deterministically, whatever the order of the members:
+     * the nearest to the perceptron, the lowest id breaking ties
+     *
+     * @param gateway - the gateway so far, or the perceptron if there is none
+     * @return the member nearer the perceptron than the gateway, if any,
+     *         otherwise the gateway
+     */
+    protected Perceptron<BoidImpl<?>> nearer(Perceptron<BoidImpl<?>> perceptron, Perceptron<BoidImpl<?>> gateway,
+                                             Collection<Perceptron<BoidImpl<?>>> members) {
+        Point3i position = perceptron.getLocation();
+        long best = gateway == perceptron ? Long.MAX_VALUE : distanceSquared(position, gateway.getLocation());
+        for (Perceptron<BoidImpl<?>> member : members) {
+            if (member == perceptron) {
+                continue;
+            }
+            long distance = distanceSquared(position, member.getLocation());
+            if (distance < best || (distance == best && member.getSim().getId() < gateway.getSim().getId())) {
+                best = distance;
+                gateway = member;
+            }
+        }
+        return gateway;
+    }
+
+    /**
+     * Have every boid step itself from now on
+     */
+    protected void startStepping() {
+        for (Perceptron<BoidImpl<?>> p : predators.keySet()) {
+            p.getSim().startStepping(TICK_TIME);
+        }
+        for (Perceptron<BoidImpl<?>> p : prey.keySet()) {
+            p.getSim().startStepping(TICK_TIME);
+        }
+        stepping = true;
+    }
+
+    /**
+     * Step the boids in two phases. All boids are first steered concurrently,
+     * which only reads their own state, then their moves are committed one at a
+     * time in population order. The result is the same whatever the number of
+     * threads. The step events of this tick only time the commits; the steering
+     * is timed as a whole by the steer phase.
+     */
+    protected void steerAndCommit() {
+        boids.clear();
+        for (Perceptron<BoidImpl<?>> p : predators.keySet()) {
+            if (p.getSim().dueThisTick()) {
+                boids.add(p.getSim());
+            }
+        }
+        int split = boids.size();
+        for (Perceptron<BoidImpl<?>> p : prey.keySet()) {
+            if (p.getSim().dueThisTick()) {
+                boids.add(p.getSim());
+            }
+        }
+        long mark = System.nanoTime();
+        pool.submit(() -> boids.parallelStream().forEach(BoidImpl::steer)).join();
+        mark = metrics.record(Phase.STEER, mark);
+        for (int i = 0; i < split; i++) {
+            commit(boids.get(i));
+        }
+        mark = metrics.record(Phase.PREDATORS, mark);
+        for (int i = split; i < boids.size(); i++) {
+            commit(boids.get(i));
+        }
+        metrics.record(Phase.PREY, mark);
+    }
+
+    protected Perceptron<BoidImpl<?>> makePredator(int num) {
+        Newborn newborn = newborn(parameters.maxPredatorSpeed);
+        return makePredator(num, newborn.position(), newborn.velocity(), newborn.color());
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Perceptron<BoidImpl<?>> makePredator(int num, Point3i position, Vector3i velocity, Color color) {
+        PredatorPack<Predator<?, ?>, Prey<?, ?>> behavior = new PredatorPack<Predator<?, ?>, Prey<?, ?>>();
+        behavior.setFlockClass(Predator.class);
+        behavior.setPreyClass(Prey.class);
+        behavior.setCohesionChange(parameters.predatorCohesionChange);
+        behavior.setMaximumFlockDistance(parameters.maximumPredatorFlockDistance);
+        behavior.setRepellerChange(parameters.predatorRepellerChange);
+        behavior.setVelocityMatchChange(parameters.predatorVelocityMatchChange);
+        behavior.setHuntChange(parameters.predatorHuntChange);
+        behavior.setPreyIndex(parameters.predatorSeekRadius);
+        behavior.setSpecies(registry, Snapshot.PREDATOR);
+        behavior.setSeparationGrid(parameters.separationGrid);
+        behavior.setSeparationKernel(parameters.vectorSeparation ? SeparationKernel.create(true) : null);
+        int scale = parameters.scale;
+        Animation animation = new Animation(scale, 10 * scale, 10 * scale, color, 2);
+        @SuppressWarnings("rawtypes")
+        BoidImpl<?> predator = new Predator(behavior, velocity, parameters.maxPreySpeed, animation, field,
+                                            parameters.predatorSeekRadius, parameters.predatorCatchDistance,
+                                            parameters.maxPredatorChaseSpeed, this);
+        predator.setRandom(new RandomStream(boidSeed, num));
+        predator.setRandomChange(parameters.predatorRandomChange);
+        predator.setMaximumStride(parameters.maximumStride);
+        predator.setCruisingStride(parameters.cruisingStride);
+        predator.setId(num);
+        predator.setSpeciesId(Snapshot.PREDATOR);
+        @SuppressWarnings("rawtypes")
+        Perceptron perceptron = createPerceptron(position, new UUID(0, num), predator, parameters.predatorAoiRadius,
+                                                 parameters.maxPredatorChaseSpeed);
+        animation.setPerceptron(perceptron);
+        predator.setCursor(perceptron);
+        behavior.setCloseNeighbors(parameters.trackCloseNeighbors ? perceptron : null);
+        predators.put(perceptron, animation);
+        perceptrons.put(predator, perceptron);
+        return perceptron;
+    }
+
+    protected Perceptron<BoidImpl<?>> makePrey(int num) {
+        Newborn newborn = newborn(parameters.maxPreySpeed);
+        Perceptron<BoidImpl<?>> recycled = recycle(num, newborn.position(), newborn.velocity(), newborn.color());
+        return recycled != null ? recycled
+                                : makePrey(num, newborn.position(), newborn.velocity(), newborn.color());
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Perceptron<BoidImpl<?>> makePrey(int num, Point3i position, Vector3i velocity, Color color) {
+        FlockingPrey<Prey<?, ?>, Predator<?, ?>> behavior = new FlockingPrey<Prey<?, ?>, Predator<?, ?>>();
+        behavior.setFlockClass(Prey.class);
+        behavior.setPredatorClass(Predator.class);
+        behavior.setCohesionChange(parameters.preyCohesionChange);
+        behavior.setMaximumFlockDistance(parameters.maximumPreyFlockDistance);
+        behavior.setRepellerChange(parameters.preyRepellerChange);
+        behavior.setVelocityMatchChange(parameters.preyVelocityMatchChange);
+        behavior.setScareDistance(parameters.preyScareDistance);
+        behavior.setPredatorFleeChange(parameters.predatorFleeChange);
+        behavior.setSpecies(registry, Snapshot.PREY);
+        behavior.setSeparationGrid(parameters.separationGrid);
+        behavior.setSeparationKernel(parameters.vectorSeparation ? SeparationKernel.create(true) : null);
+        int scale = parameters.scale;
+        Animation animation = new Animation(scale, 5 * scale, 5 * scale, color, 1);
+        @SuppressWarnings("rawtypes")
+        BoidImpl<?> p = new Prey(behavior, velocity, parameters.maxPreySpeed, animation, field, this);
+        p.setRandom(new RandomStream(boidSeed, num));
+        p.setRandomChange(parameters.preyRandomChange);
+        p.setMaximumStride(parameters.maximumStride);
+        p.setCruisingStride(parameters.cruisingStride);
+        p.setId(num);
+        p.setSpeciesId(Snapshot.PREY);
+        @SuppressWarnings("rawtypes")
+        Perceptron perceptron = createPerceptron(position, new UUID(0, num), p, parameters.preyAoiRadius,
+                                                 parameters.maxPredatorSpeed);
+        animation.setPerceptron(perceptron);
+        p.setCursor(perceptron);
+        behavior.setCloseNeighbors(parameters.trackCloseNeighbors ? perceptron : null);
+        prey.put(perceptron, animation);
+        perceptrons.put(p, perceptron);
+        return perceptron;
+    }
+
+    /**
+     * @return a boid's random position in the field, velocity at the maximum
+     *         speed and color
+     */
+    protected Newborn newborn(int maximumSpeed) {
+        Point3i position = new Point3i(random.nextInt(field.x), random.nextInt(field.y),
+                                       field.z > 0 ? random.nextInt(field.z) : 0);
+        Vector3i velocity = new Vector3i(maximumSpeed - random.nextInt(maximumSpeed) * 2,
+                                         maximumSpeed - random.nextInt(maximumSpeed) * 2,
+                                         field.z > 0 ? maximumSpeed - random.nextInt(maximumSpeed) * 2 : 0);
+        velocity.normalizeTo(maximumSpeed);
+        Color color = new Color((int) (random.nextDouble() * 256 * 256 * 256));
+        return new Newborn(position, velocity, color);
+    }
+
+    /**
+     * Rebirth the longest dead prey, if any, as a new prey that has not yet
+     * joined the overlay. Any step the dead boid still had scheduled is of its
+     * previous generation, and does nothing.
+     *
+     * @return the reborn prey, or null if there is none to recycle
+     */
+    protected Perceptron<BoidImpl<?>> recycle(int num, Point3i position, Vector3i velocity, Color color) {
+        Perceptron<BoidImpl<?>> perceptron = nursery.poll();
+        if (perceptron == null) {
+            return null;
+        }
+        BoidImpl<?> boid = perceptron.getSim();
+        tally(boid);
+        boid.reborn(num, boidSeed, velocity);
+        Point3i location = perceptron.getLocation();
+        displacement.set(position.x - location.x, position.y - location.y, position.z - location.z);
+        perceptron.moveBy(displacement);
+        Animation animation = boid.getAnimation();
+        animation.reset(color, perceptron.getLocation());
+        prey.put(perceptron, animation);
+        perceptrons.put(boid, perceptron);
+        return perceptron;
+    }
+
+    /**
+     * Count the events delivered to a boid about to leave the population for
+     * good, or to be reborn, in the totals
+     */
+    protected void tally(BoidImpl<?> boid) {
+        pastNotices += boid.getNotices();
+        pastMoves += boid.getMoves();
+        pastFades += boid.getFades();
+    }
+
+    /**
+     * @return the position's index along a Z order curve over the field, in
+     *         three dimensions if the field has depth
+     */
+    protected long zOrder(Point3i position) {
+        if (field.z == 0) {
+            return spread(Math.max(0, position.x)) | spread(Math.max(0, position.y)) << 1;
+        }
+        // 21 bits of each coordinate fit the curve, so coarsen a larger field
+        int extent = Math.max(field.x, Math.max(field.y, field.z));
+        int shift = Math.max(0, 32 - Integer.numberOfLeadingZeros(extent) - 21);
+        return spread3(Math.max(0, position.x) >> shift) | spread3(Math.max(0, position.y) >> shift) << 1
+               | spread3(Math.max(0, position.z) >> shift) << 2;
+    }
+
+    /**
+     * Commit the boid's steered step, as a step event if steps are recorded
+     */
+    private void commit(BoidImpl<?> boid) {
+        if (!STEP.isEnabled()) {
+            boid.commit();
+            return;
+        }
+        StepEvent event = new StepEvent();
+        event.begin();
+        boid.commit();
+        event.complete(boid.getId(), boid.getClass().getSimpleName(), boid.getBehavior().getFlockSize());
+    }
+
+    private long distanceSquared(Point3i a, Point3i b) {
+        long dx = (long) a.x - b.x;
+        long dy = (long) a.y - b.y;
+        long dz = (long) a.z - b.z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private long spread(int value) {
+        long v = value & 0xFFFFFFFFL;
+        v = (v | v << 16) & 0x0000FFFF0000FFFFL;
+        v = (v | v << 8) & 0x00FF00FF00FF00FFL;
+        v = (v | v << 4) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | v << 2) & 0x3333333333333333L;
+        v = (v | v << 1) & 0x5555555555555555L;
+        return v;
+    }
+
+    /**
+     * @return the low 21 bits of the value, spread to every third bit
+     */
+    private long spread3(int value) {
+        long v = value & 0x1FFFFFL;
+        v = (v | v << 32) & 0x001F00000000FFFFL;
+        v = (v | v << 16) & 0x001F0000FF0000FFL;
+        v = (v | v << 8) & 0x100F00F00F00F00FL;
+        v = (v | v << 4) & 0x10C30C30C30C30C3L;
+        v = (v | v << 2) & 0x1249249249249249L;
+        return v;
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.boids.engine;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs a simulation on its own thread, either flat out or at a target tick
+ * rate, publishing an immutable snapshot after every tick. Consumers such as
+ * the renderer simply take the latest snapshot whenever they are ready for one,
+ * skipping any ticks they were too slow to see; nothing they do holds up the
+ * simulation.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class SimulationDriver {
+    private volatile Snapshot              latest;
+    private final List<Consumer<Snapshot>> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean               paused;
+    private volatile boolean               running;
+    private final Semaphore                steps     = new Semaphore(0);
+    private final Simulation               simulation;
+    private Thread                         thread;
+    private volatile long                  tickNanos;
+
+    public SimulationDriver(Simulation simulation) {
+        this.simulation = simulation;
+        this.latest = simulation.snapshot();
+    }
+
+    /**
+     * Add a listener invoked on the simulation thread with every published
+     * snapshot. Listeners must be quick; anything slow belongs on another thread.
+     */
+    public void addListener(Consumer<Snapshot> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return the most recently published snapshot
+     */
+    public Snapshot getLatest() {
+        return latest;
+    }
+
+    public Simulation getSimulation() {
+        return simulation;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public void removeListener(Consumer<Snapshot> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Pause or resume free running ticks
+     */
+    public void setPaused(boolean paused) {
+        if (paused && !this.paused) {
+            steps.drainPermits();
+        }
+        this.paused = paused;
+        if (!paused) {
+            steps.release();
+        }
+    }
+
+    /**
+     * @param ticksPerSecond - the target tick rate, or 0 to run flat out
+     */
+    public void setTickRate(double ticksPerSecond) {
+        tickNanos = ticksPerSecond <= 0 ? 0 : (long) (1_000_000_000L / ticksPerSecond);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "Simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Perform a single tick while paused
+     */
+    public void step() {
+        steps.release();
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        steps.release();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    private void publish(Snapshot snapshot) {
+        latest = snapshot;
+        for (Consumer<Snapshot> listener : listeners) {
+            listener.accept(snapshot);
+        }
+    }
+
+    private void run() {
+        long next = System.nanoTime();
+        while (running) {
+            if (paused) {
+                try {
+                    if (!steps.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                        continue;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!running) {
+                    return;
+                }
+            }
+            simulation.tick();
+            publish(simulation.snapshot());
+            long interval = tickNanos;
+            if (interval > 0) {
+                next += interval;
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                } else {
+                    next = System.nanoTime();
+                }
+            } else {
+                next = System.nanoTime();
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.boids.engine;
+
+import java.util.Arrays;
+
+/**
+ * An immutable picture of the population at the end of a tick, safe to hand to
+ * other threads.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class Snapshot {
+    public static final int PREDATOR = 1;
+    public static final int PREY     = 0;
+
+    /**
+     * Accumulates the state of the boids of a tick into a snapshot
+     */
+    public static class Builder {
+        private int[]      colors;
+        private int        count;
+        private int[]      ids;
+        private int[]      positions;
+        private int[]      species;
+        private final long tick;
+        private int[]      velocities;
+
+        public Builder(long tick, int capacity) {
+            this.tick = tick;
+            colors = new int[capacity];
+            ids = new int[capacity];
+            species = new int[capacity];
+            positions = new int[capacity * 3];
+            velocities = new int[capacity * 3];
+        }
+
+        public Builder add(int id, int kind, int color, int x, int y, int z, int vx, int vy, int vz) {
+            if (count == ids.length) {
+                int capacity = Math.max(16, count * 2);
+                colors = Arrays.copyOf(colors, capacity);
+                ids = Arrays.copyOf(ids, capacity);
+                species = Arrays.copyOf(species, capacity);
+                positions = Arrays.copyOf(positions, capacity * 3);
+                velocities = Arrays.copyOf(velocities, capacity * 3);
+            }
+            ids[count] = id;
+            species[count] = kind;
+            colors[count] = color;
+            positions[count * 3] = x;
+            positions[count * 3 + 1] = y;
+            positions[count * 3 + 2] = z;
+            velocities[count * 3] = vx;
+            velocities[count * 3 + 1] = vy;
+            velocities[count * 3 + 2] = vz;
+            count++;
+            return this;
+        }
+
+        public Snapshot build() {
+            return new Snapshot(tick, count, ids, species, colors, positions, velocities);
+        }
+    }
+
+    private final int[] colors;
+    private final int[] ids;
+    private final int[] positions;
+    private final int   size;
+    private final int[] species;
+    private final long  tick;
+    private final int[] velocities;
+
+    private Snapshot(long tick, int size, int[] ids, int[] species, int[] colors, int[] positions, int[] velocities) {
+        this.tick = tick;
+        this.size = size;
+        this.ids = ids;
+        this.species = species;
+        this.colors = colors;
+        this.positions = positions;
+        this.velocities = velocities;
+    }
+
+    /**
+     * @return the RGB color of the i'th boid
+     */
+    public int getColor(int i) {
+        return colors[i];
+    }
+
+    public int getId(int i) {
+        return ids[i];
+    }
+
+    public int getSpecies(int i) {
+        return species[i];
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public int getVx(int i) {
+        return velocities[i * 3];
+    }
+
+    public int getVy(int i) {
+        return velocities[i * 3 + 1];
+    }
+
+    public int getVz(int i) {
+        return velocities[i * 3 + 2];
+    }
+
+    public int getX(int i) {
+        return positions[i * 3];
+    }
+
+    public int getY(int i) {
+        return positions[i * 3 + 1];
+    }
+
+    public int getZ(int i) {
+        return positions[i * 3 + 2];
+    }
+
+    /**
+     * @return the number of boids
+     */
+    public int size() {
+        return size;
+    }
+}
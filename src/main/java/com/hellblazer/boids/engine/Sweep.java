@@ -0,0 +1,309 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.hellblazer.boids.engine;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a grid of headless simulations concurrently, each entirely on one
+ * thread, and writes a summary of every run and its survivors over time as
+ * CSV.
+ * <p>
+ * The grid is read from a properties file. Each property naming a public field
+ * of {@link Parameters} is a comma separated list of values for that field, set
+ * as given; the runs are every combination of the values, each repeated for the
+ * number of replicates with both seeds advanced by the replicate number.
+ * <code>scale</code> cannot be swept, as the distances and speeds derived from
+ * it are fixed when the parameters are created. The properties prefixed
+ * <code>sweep.</code> configure the sweep itself:
+ *
+ * <pre>
+ * sweep.ticks      - the ticks each run lasts (1000)
+ * sweep.replicates - the runs of each combination (1)
+ * sweep.sample     - the interval, in ticks, of the survivor counts (100)
+ * sweep.threads    - the number of concurrent runs (the available processors)
+ * sweep.output     - the directory summary.csv and survivors.csv are written to (sweep)
+ * </pre>
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class Sweep {
+    /**
+     * The outcome of a run. Survivors are {tick, prey, predators}, sampled from
+     * the start of the run.
+     */
+    public record Result(int run, int replicate, Map<String, String> settings, long ticks, long nanos, long kills,
+                         int prey, int predators, List<int[]> survivors) {
+        public double ticksPerSecond() {
+            return nanos == 0 ? 0.0 : ticks * 1_000_000_000.0 / nanos;
+        }
+    }
+
+    public static final String PREFIX = "sweep.";
+
+    /**
+     * <pre>
+     * Sweep config.properties
+     * </pre>
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 1) {
+            System.err.println("Usage: Sweep <config.properties>");
+            System.exit(1);
+        }
+        Properties config = new Properties();
+        try (Reader reader = Files.newBufferedReader(Path.of(args[0]))) {
+            config.load(reader);
+        }
+        Sweep sweep = new Sweep(config);
+        System.out.println(String.format("Sweeping %,d runs of %,d ticks on %d threads", sweep.size(), sweep.ticks,
+                                         sweep.threads));
+        long start = System.nanoTime();
+        List<Result> results = sweep.run();
+        sweep.write(results);
+        System.out.println(String.format("Swept in %,.3f s; results in %s", (System.nanoTime() - start) / 1e9,
+                                         sweep.output.toAbsolutePath()));
+    }
+
+    private final List<Map<String, String>> grid;
+    private final Path                      output;
+    private final int                       replicates;
+    private final int                       sample;
+    private final int                       threads;
+    private final long                      ticks;
+
+    public Sweep(Properties config) {
+        ticks = Long.parseLong(config.getProperty(PREFIX + "ticks", "1000"));
+        replicates = Integer.parseInt(config.getProperty(PREFIX + "replicates", "1"));
+        sample = Integer.parseInt(config.getProperty(PREFIX + "sample", "100"));
+        int processors = Runtime.getRuntime().availableProcessors();
+        threads = Integer.parseInt(config.getProperty(PREFIX + "threads", Integer.toString(processors)));
+        output = Path.of(config.getProperty(PREFIX + "output", "sweep"));
+        if (ticks < 1 || replicates < 1 || sample < 1 || threads < 1) {
+            throw new IllegalArgumentException("Ticks, replicates, sample and threads must be positive");
+        }
+        grid = grid(config);
+    }
+
+    /**
+     * @return the settings of each combination, in run order
+     */
+    public List<Map<String, String>> getGrid() {
+        return Collections.unmodifiableList(grid);
+    }
+
+    public Path getOutput() {
+        return output;
+    }
+
+    /**
+     * Perform every run, at most the configured number at a time
+     *
+     * @return the results in run order
+     */
+    public List<Result> run() throws InterruptedException {
+        List<Callable<Result>> runs = new ArrayList<>();
+        for (int i = 0; i < grid.size(); i++) {
+            for (int r = 0; r < replicates; r++) {
+                int index = i;
+                int replicate = r;
+                runs.add(() -> run(index, grid.get(index), replicate));
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Result> results = new ArrayList<>(runs.size());
+            for (Future<Result> future : executor.invokeAll(runs)) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Run failed", e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the number of runs
+     */
+    public int size() {
+        return grid.size() * replicates;
+    }
+
+    /**
+     * Write summary.csv, a line per run, and survivors.csv, a line per sample of
+     * each run, to the output directory
+     */
+    public void write(List<Result> results) throws IOException {
+        Files.createDirectories(output);
+        List<String> keys = grid.isEmpty() ? List.of() : new ArrayList<>(grid.get(0).keySet());
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(output.resolve("summary.csv")))) {
+            out.print("run,replicate");
+            for (String key : keys) {
+                out.print(',');
+                out.print(key);
+            }
+            out.println(",ticks,seconds,ticksPerSecond,kills,prey,predators");
+            for (Result result : results) {
+                out.print(result.run() + "," + result.replicate());
+                for (String key : keys) {
+                    out.print(',');
+                    out.print(result.settings().get(key));
+                }
+                out.println(String.format(Locale.ROOT, ",%d,%.3f,%.1f,%d,%d,%d", result.ticks(),
+                                          result.nanos() / 1e9, result.ticksPerSecond(), result.kills(),
+                                          result.prey(), result.predators()));
+            }
+        }
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(output.resolve("survivors.csv")))) {
+            out.println("run,replicate,tick,prey,predators");
+            for (Result result : results) {
+                for (int[] survivors : result.survivors()) {
+                    out.println(String.format(Locale.ROOT, "%d,%d,%d,%d,%d", result.run(), result.replicate(),
+                                              survivors[0], survivors[1], survivors[2]));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the parameters of a run: the defaults, with the settings applied
+     *         and the seeds advanced by the replicate number
+     */
+    protected Parameters parameters(Map<String, String> settings, int replicate) {
+        Parameters parameters = new Parameters();
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            set(parameters, field(setting.getKey()), setting.getValue());
+        }
+        parameters.seed += replicate;
+        parameters.boidSeed += replicate;
+        return parameters;
+    }
+
+    /**
+     * Perform a single run on the calling thread. The simulation is built and
+     * stepped here, so it shares nothing with the runs on other threads.
+     */
+    protected Result run(int index, Map<String, String> settings, int replicate) {
+        try (Simulation simulation = new Simulation(parameters(settings, replicate))) {
+            simulation.init();
+            List<int[]> survivors = new ArrayList<>();
+            survivors.add(new int[] { 0, simulation.getPrey().size(), simulation.getPredators().size() });
+            long start = System.nanoTime();
+            for (long tick = 1; tick <= ticks; tick++) {
+                simulation.tick();
+                if (tick % sample == 0) {
+                    survivors.add(new int[] { (int) tick, simulation.getPrey().size(),
+                                              simulation.getPredators().size() });
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            return new Result(index, replicate, settings, ticks, nanos, simulation.getMetrics().getDeaths(),
+                              simulation.getPrey().size(), simulation.getPredators().size(), survivors);
+        }
+    }
+
+    private Field field(String name) {
+        try {
+            Field field = Parameters.class.getField(name);
+            if (Modifier.isStatic(field.getModifiers())) {
+                throw new IllegalArgumentException("Not a parameter: " + name);
+            }
+            if (name.equals("scale")) {
+                // the distances and speeds would keep the default scale
+                throw new IllegalArgumentException("Parameter cannot be swept: " + name);
+            }
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new IllegalArgumentException("Unknown parameter: " + name);
+        }
+    }
+
+    /**
+     * @return every combination of the values of the parameters in the config,
+     *         the parameters in name order
+     */
+    private List<Map<String, String>> grid(Properties config) {
+        List<Map<String, String>> grid = new ArrayList<>();
+        grid.add(new LinkedHashMap<>());
+        for (String name : new TreeSet<>(config.stringPropertyNames())) {
+            if (name.startsWith(PREFIX)) {
+                continue;
+            }
+            Field field = field(name);
+            List<Map<String, String>> expanded = new ArrayList<>();
+            for (String value : config.getProperty(name).split(",")) {
+                value = value.trim();
+                set(new Parameters(), field, value);
+                for (Map<String, String> settings : grid) {
+                    Map<String, String> combination = new LinkedHashMap<>(settings);
+                    combination.put(name, value);
+                    expanded.add(combination);
+                }
+            }
+            grid = expanded;
+        }
+        return grid;
+    }
+
+    private void set(Parameters parameters, Field field, String value) {
+        try {
+            Class<?> type = field.getType();
+            if (type == int.class) {
+                field.setInt(parameters, Integer.parseInt(value));
+            } else if (type == long.class) {
+                field.setLong(parameters, Long.parseLong(value));
+            } else if (type == double.class) {
+                field.setDouble(parameters, Double.parseDouble(value));
+            } else if (type == boolean.class) {
+                field.setBoolean(parameters, Boolean.parseBoolean(value));
+            } else {
+                throw new IllegalArgumentException("Parameter cannot be swept: " + field.getName());
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + field.getName() + ": " + value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
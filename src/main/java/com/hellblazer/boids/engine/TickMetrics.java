@@ -0,0 +1,363 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.hellblazer.boids.engine;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Timings of the phases of a simulation's ticks, with the events delivered to
+ * the boids and the sizes of their flocks. Exposed through JMX once
+ * registered, and optionally logged periodically.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class TickMetrics implements TickMetricsMXBean {
+    /**
+     * The events delivered to the boids since the start, which only increase,
+     * with the size and flock sizes of the living population
+     */
+    public record Census(int population, long notices, long moves, long fades, double meanFlockSize,
+                         int maximumFlockSize) {
+    }
+
+    /**
+     * A histogram of durations in power of two buckets of nanoseconds
+     */
+    public static class Histogram {
+        private final long[] buckets = new long[64];
+        private long         count;
+        private long         maximum;
+        private long         total;
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getMaximum() {
+            return maximum;
+        }
+
+        public synchronized double getMean() {
+            return count == 0 ? 0.0 : (double) total / count;
+        }
+
+        public synchronized long getTotal() {
+            return total;
+        }
+
+        /**
+         * @param quantile - between 0 and 1
+         * @return the upper bound of the bucket holding the quantile, in nanoseconds
+         */
+        public synchronized long percentile(double quantile) {
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(maximum, i >= 62 ? Long.MAX_VALUE : 1L << (i + 1));
+                }
+            }
+            return 0;
+        }
+
+        public synchronized void record(long nanos) {
+            buckets[63 - Long.numberOfLeadingZeros(Math.max(1, nanos))]++;
+            count++;
+            total += nanos;
+            maximum = Math.max(maximum, nanos);
+        }
+
+        public synchronized void reset() {
+            Arrays.fill(buckets, 0);
+            count = 0;
+            maximum = 0;
+            total = 0;
+        }
+    }
+
+    /**
+     * The phases of a tick. When the boids step as events, PREDATORS and PREY
+     * only schedule the steps, which then run as part of EVENTS. In a two phase
+     * tick, STEER is the concurrent steering of all boids, PREDATORS and PREY
+     * commit their moves and EVENTS delivers the resulting notices, moves and
+     * fades. BURY removes the dead and breeds their replacements. PAINT is the
+     * display's drawing, when there is one.
+     */
+    public enum Phase {
+        PREDATORS, PREY, STEER, EVENTS, BURY, PAINT, TICK;
+    }
+
+    /**
+     * The census as of a tick
+     */
+    private record Sample(long tick, Census census) {
+    }
+
+    private static final Logger log = Logger.getLogger(TickMetrics.class.getName());
+
+    private long                   births;
+    private final Supplier<Census> census;
+    private long                   deaths;
+    private final long[]           lastCounts = new long[Phase.values().length];
+    private long                   lastEvents;
+    private long                   lastLog;
+    private long                   lastTicks;
+    private final long[]           lastTotals = new long[Phase.values().length];
+    private volatile Sample        latest;
+    private long                   logPeriod;
+    private ObjectName             name;
+    private final Histogram[]      phases     = new Histogram[Phase.values().length];
+    private volatile long          ticks;
+
+    public TickMetrics(Supplier<Census> census) {
+        this.census = census;
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new Histogram();
+        }
+        lastLog = System.nanoTime();
+    }
+
+    /**
+     * Count the boids born at the end of a tick
+     */
+    public synchronized void born(int count) {
+        births += count;
+    }
+
+    /**
+     * Count the boids buried at the end of a tick
+     */
+    public synchronized void died(int count) {
+        deaths += count;
+    }
+
+    @Override
+    public synchronized long getBirths() {
+        return births;
+    }
+
+    @Override
+    public synchronized long getDeaths() {
+        return deaths;
+    }
+
+    @Override
+    public long getFades() {
+        return census().fades();
+    }
+
+    public Histogram getHistogram(Phase phase) {
+        return phases[phase.ordinal()];
+    }
+
+    @Override
+    public int getMaximumFlockSize() {
+        return census().maximumFlockSize();
+    }
+
+    @Override
+    public Map<String, Double> getMaximumMillis() {
+        return millis(h -> h.getMaximum());
+    }
+
+    @Override
+    public double getMeanFlockSize() {
+        return census().meanFlockSize();
+    }
+
+    @Override
+    public Map<String, Double> getMeanMillis() {
+        return millis(h -> h.getMean());
+    }
+
+    @Override
+    public long getMoves() {
+        return census().moves();
+    }
+
+    @Override
+    public long getNotices() {
+        return census().notices();
+    }
+
+    @Override
+    public Map<String, Double> getP99Millis() {
+        return millis(h -> h.percentile(0.99));
+    }
+
+    @Override
+    public int getPopulation() {
+        return census().population();
+    }
+
+    @Override
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Record the duration of a phase
+     *
+     * @param phase
+     * @param since - the System.nanoTime() the phase started
+     * @return the System.nanoTime() the phase ended
+     */
+    public long record(Phase phase, long since) {
+        long now = System.nanoTime();
+        phases[phase.ordinal()].record(now - since);
+        return now;
+    }
+
+    /**
+     * Register with the platform MBean server
+     *
+     * @param id - distinguishes the simulation
+     */
+    public synchronized void register(String id) {
+        if (name != null) {
+            return;
+        }
+        try {
+            name = new ObjectName("com.hellblazer.boids:type=TickMetrics,name=" + ObjectName.quote(id));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        } catch (JMException e) {
+            name = null;
+            throw new IllegalStateException("Unable to register tick metrics", e);
+        }
+    }
+
+    @Override
+    public synchronized void reset() {
+        for (Histogram histogram : phases) {
+            histogram.reset();
+        }
+        Arrays.fill(lastCounts, 0);
+        Arrays.fill(lastTotals, 0);
+        births = 0;
+        deaths = 0;
+    }
+
+    /**
+     * @param seconds - the period of the log line, or 0 for none
+     */
+    public void setLogPeriod(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Log period must be non negative");
+        }
+        logPeriod = seconds * 1_000_000_000L;
+    }
+
+    /**
+     * Record a completed tick, logging if the period has elapsed
+     *
+     * @param since - the System.nanoTime() the tick started
+     */
+    public void tick(long since) {
+        long now = record(Phase.TICK, since);
+        ticks++;
+        if (logPeriod > 0 && now - lastLog >= logPeriod) {
+            log(now);
+        }
+    }
+
+    public synchronized void unregister() {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            throw new IllegalStateException("Unable to unregister tick metrics", e);
+        } finally {
+            name = null;
+        }
+    }
+
+    /**
+     * Log the mean duration of each phase over the period, with the event rate
+     * and flock sizes
+     */
+    protected synchronized void log(long now) {
+        if (!log.isLoggable(Level.INFO)) {
+            lastLog = now;
+            return;
+        }
+        Census current = census();
+        long events = current.notices() + current.moves() + current.fades();
+        long elapsedTicks = ticks - lastTicks;
+        double eventRate = elapsedTicks == 0 || current.population() == 0 ? 0.0
+                                                                           : (double) (events - lastEvents)
+                                                                             / current.population() / elapsedTicks;
+        StringBuilder line = new StringBuilder();
+        line.append(String.format("tick %,d: %,.1f ticks/s;", ticks, elapsedTicks * 1e9 / (now - lastLog)));
+        for (Phase phase : Phase.values()) {
+            Histogram histogram = phases[phase.ordinal()];
+            long count = histogram.getCount() - lastCounts[phase.ordinal()];
+            long total = histogram.getTotal() - lastTotals[phase.ordinal()];
+            lastCounts[phase.ordinal()] = histogram.getCount();
+            lastTotals[phase.ordinal()] = histogram.getTotal();
+            if (count > 0) {
+                line.append(String.format(" %s %,.3f ms", phase.name().toLowerCase(), total / 1e6 / count));
+            }
+        }
+        line.append(String.format("; population %,d, flock %,.1f mean %,d max, %,.1f events/boid/tick, %,d deaths, %,d births",
+                                  current.population(), current.meanFlockSize(), current.maximumFlockSize(),
+                                  eventRate, deaths, births));
+        log.info(line.toString());
+        lastEvents = events;
+        lastTicks = ticks;
+        lastLog = now;
+    }
+
+    /**
+     * The census walks the whole population, so it is taken at most once a tick
+     * however many of its statistics are read. Not synchronized, as the census
+     * takes the simulation's lock, which is held while ticking.
+     */
+    private Census census() {
+        long tick = ticks;
+        Sample sample = latest;
+        if (sample == null || sample.tick() != tick) {
+            sample = new Sample(tick, census.get());
+            latest = sample;
+        }
+        return sample.census();
+    }
+
+    private Map<String, Double> millis(ToDoubleFunction<Histogram> statistic) {
+        Map<String, Double> millis = new LinkedHashMap<>();
+        for (Phase phase : Phase.values()) {
+            millis.put(phase.name(), statistic.applyAsDouble(phases[phase.ordinal()]) / 1e6);
+        }
+        return millis;
+    }
+}
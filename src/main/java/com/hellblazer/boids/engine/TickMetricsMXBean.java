@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.hellblazer.boids.engine;
+
+import java.util.Map;
+
+/**
+ * The management view of a simulation's {@link TickMetrics}. Times are in
+ * milliseconds and keyed by phase.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public interface TickMetricsMXBean {
+    long getBirths();
+
+    long getDeaths();
+
+    long getFades();
+
+    int getMaximumFlockSize();
+
+    Map<String, Double> getMaximumMillis();
+
+    double getMeanFlockSize();
+
+    Map<String, Double> getMeanMillis();
+
+    long getMoves();
+
+    long getNotices();
+
+    Map<String, Double> getP99Millis();
+
+    int getPopulation();
+
+    long getTicks();
+
+    void reset();
+}
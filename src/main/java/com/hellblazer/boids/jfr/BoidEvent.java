@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.hellblazer.boids.jfr;
+
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * The flight recorder events of the boids. All are disabled by default;
+ * boids.jfc enables them by category. Events are only created once their type
+ * is known to be enabled, so without a recording they cost no allocation.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+@Enabled(false)
+@StackTrace(false)
+public abstract class BoidEvent extends Event {
+    @Label("Boid Id")
+    public int    boidId;
+
+    @Label("Neighbors")
+    public int    neighbors;
+
+    @Label("Species")
+    public String species;
+
+    /**
+     * End the event, committing it if it is to be recorded
+     */
+    public void complete(int boidId, String species, int neighbors) {
+        end();
+        if (shouldCommit()) {
+            this.boidId = boidId;
+            this.species = species;
+            this.neighbors = neighbors;
+            commit();
+        }
+    }
+}
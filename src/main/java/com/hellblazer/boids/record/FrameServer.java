@@ -0,0 +1,451 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.hellblazer.boids.record;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import javax.vecmath.Point3i;
+
+import com.hellblazer.boids.engine.Snapshot;
+
+/**
+ * Streams the published snapshots to any number of viewers over TCP. Each
+ * viewer is sent a header, then a frame per tick:
+ *
+ * <pre>
+ * header        - magic, version, quantum, field x, y, z (ints)
+ * frame         - length of the rest of the frame (int), kind (byte), tick and
+ *                 count (varints), then count records
+ *     keyframe  - id, species &lt;&lt; 24 | rgb, x, y, z
+ *     delta     - id &lt;&lt; 1 | born, then species &lt;&lt; 24 | rgb, x, y, z if
+ *                 born, otherwise dx, dy, dz
+ * </pre>
+ *
+ * Ints are little endian, everything else is a varint, signed values zigzag
+ * encoded. A record's id is the difference from the previous record's, from
+ * zero. Positions are in quanta of the field, and in a delta frame are the
+ * difference from the boid's position in the previous frame; a boid that was
+ * not in it is born. A boid missing from a frame is gone.
+ * <p>
+ * As a listener, the server only hands the snapshot to its own thread, which
+ * encodes the frames and writes them without blocking. A viewer still writing
+ * an earlier frame misses the tick, and resumes with a keyframe; should the
+ * server itself fall behind, it skips to the latest snapshot. Nothing a viewer
+ * does holds up the simulation.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class FrameServer implements Consumer<Snapshot>, Closeable {
+    private static class Viewer {
+        final SocketChannel channel;
+        boolean             closed;
+        long                last    = Long.MIN_VALUE;
+        ByteBuffer          pending;
+        long                sending = Long.MIN_VALUE;
+
+        Viewer(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    public static final byte DELTA       = 'D';
+    public static final int  HEADER_SIZE = 24;
+    public static final byte KEYFRAME    = 'K';
+    public static final int  MAGIC       = 0x53524642; // "BFRS"
+    public static final int  VERSION     = 1;
+
+    /**
+     * Write the value as an unsigned varint
+     */
+    public static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public static long zigzag(long value) {
+        return value << 1 ^ value >> 63;
+    }
+
+    private final InetSocketAddress         address;
+    private final ByteBuffer                discard = ByteBuffer.allocate(256);
+    private long                            dropped;
+    private volatile Throwable              failure;
+    private long                            frames;
+    private final ByteBuffer                header;
+    private final int                       keyframeInterval;
+    private int[]                           lastX   = new int[0];
+    private int[]                           lastY   = new int[0];
+    private int[]                           lastZ   = new int[0];
+    private final AtomicReference<Snapshot> pending = new AtomicReference<>();
+    private final int                       quantum;
+    private volatile boolean                running = true;
+    private ByteBuffer                      scratch = ByteBuffer.allocate(1 << 16);
+    private long[]                          seen    = new long[0];
+    private final Selector                  selector;
+    private final ServerSocketChannel       server;
+    private final Thread                    thread;
+    private final List<Viewer>              viewers = new ArrayList<>();
+
+    /**
+     * Listen for viewers on the address
+     *
+     * @param address          - the address to listen on, port 0 for any
+     * @param field            - the extent of the field
+     * @param quantum          - the field units of a position quantum
+     * @param keyframeInterval - frames between keyframes sent to all viewers, 0
+     *                         for only those that need one
+     */
+    public FrameServer(InetSocketAddress address, Point3i field, int quantum, int keyframeInterval) throws IOException {
+        if (quantum < 1 || keyframeInterval < 0) {
+            throw new IllegalArgumentException("Quantum must be positive and keyframe interval non negative");
+        }
+        this.quantum = quantum;
+        this.keyframeInterval = keyframeInterval;
+        header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC)
+              .putInt(VERSION)
+              .putInt(quantum)
+              .putInt(field.x)
+              .putInt(field.y)
+              .putInt(field.z)
+              .flip();
+        scratch.order(ByteOrder.LITTLE_ENDIAN);
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        this.address = (InetSocketAddress) server.getLocalAddress();
+        thread = new Thread(this::serve, "Frame Server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Hand the snapshot to the server thread, replacing any it has yet to take
+     */
+    @Override
+    public void accept(Snapshot snapshot) {
+        checkFailure();
+        pending.set(snapshot);
+        selector.wakeup();
+    }
+
+    /**
+     * Stop serving, disconnecting the viewers
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkFailure();
+    }
+
+    /**
+     * @return the address listened on
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the frames viewers missed while still writing an earlier one
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return the number of snapshots framed
+     */
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return the number of connected viewers
+     */
+    public synchronized int getViewers() {
+        return viewers.size();
+    }
+
+    /**
+     * Frame the snapshot for every viewer not still writing an earlier frame: a
+     * delta for those that have the previous frame, a keyframe for the rest, or
+     * for all at the keyframe interval. Each frame is encoded at most once.
+     */
+    private void broadcast(Snapshot snapshot) {
+        long frame;
+        synchronized (this) {
+            frame = frames++;
+        }
+        if (viewers.isEmpty()) {
+            return;
+        }
+        boolean all = keyframeInterval > 0 && frame % keyframeInterval == 0;
+        ByteBuffer delta = null;
+        ByteBuffer keyframe = null;
+        int missed = 0;
+        for (int i = 0; i < viewers.size(); i++) {
+            Viewer viewer = viewers.get(i);
+            if (viewer.pending != null) {
+                missed++;
+                continue;
+            }
+            if (!all && viewer.last == frame - 1) {
+                if (delta == null) {
+                    delta = encode(snapshot, frame, true);
+                }
+                viewer.pending = delta.duplicate();
+            } else {
+                if (keyframe == null) {
+                    keyframe = encode(snapshot, frame, false);
+                }
+                viewer.pending = keyframe.duplicate();
+            }
+            viewer.sending = frame;
+            write(viewer);
+        }
+        remember(snapshot, frame);
+        prune();
+        synchronized (this) {
+            dropped += missed;
+        }
+    }
+
+    private void checkFailure() {
+        Throwable t = failure;
+        if (t instanceof IOException e) {
+            throw new UncheckedIOException("Unable to serve frames", e);
+        } else if (t != null) {
+            throw new IllegalStateException("Unable to serve frames", t);
+        }
+    }
+
+    private void connect() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Viewer viewer = new Viewer(channel);
+            channel.register(selector, SelectionKey.OP_READ, viewer);
+            viewer.pending = header.duplicate();
+            synchronized (this) {
+                viewers.add(viewer);
+            }
+            write(viewer);
+        }
+    }
+
+    /**
+     * Encode the snapshot as a keyframe or as a delta from the previous frame
+     *
+     * @return the frame, ready to write
+     */
+    private ByteBuffer encode(Snapshot snapshot, long frame, boolean delta) {
+        long worst = 32L + 32L * snapshot.size();
+        if (scratch.capacity() < worst) {
+            scratch = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE, Math.max(worst, 2L * scratch.capacity())))
+                                .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        scratch.clear();
+        scratch.putInt(0).put(delta ? DELTA : KEYFRAME);
+        putVarint(scratch, snapshot.getTick());
+        putVarint(scratch, snapshot.size());
+        int previousId = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            int id = snapshot.getId(i);
+            long idDelta = zigzag((long) id - previousId);
+            previousId = id;
+            int x = Math.floorDiv(snapshot.getX(i), quantum);
+            int y = Math.floorDiv(snapshot.getY(i), quantum);
+            int z = Math.floorDiv(snapshot.getZ(i), quantum);
+            boolean born = !delta || id >= seen.length || seen[id] != frame - 1;
+            if (delta) {
+                putVarint(scratch, idDelta << 1 | (born ? 1 : 0));
+            } else {
+                putVarint(scratch, idDelta);
+            }
+            if (born) {
+                putVarint(scratch, (snapshot.getSpecies(i) << 24 | snapshot.getColor(i) & 0xFFFFFF) & 0xFFFFFFFFL);
+                putVarint(scratch, zigzag(x));
+                putVarint(scratch, zigzag(y));
+                putVarint(scratch, zigzag(z));
+            } else {
+                putVarint(scratch, zigzag((long) x - lastX[id]));
+                putVarint(scratch, zigzag((long) y - lastY[id]));
+                putVarint(scratch, zigzag((long) z - lastZ[id]));
+            }
+        }
+        scratch.putInt(0, scratch.position() - 4);
+        scratch.flip();
+        ByteBuffer encoded = ByteBuffer.allocate(scratch.remaining());
+        encoded.put(scratch).flip();
+        return encoded;
+    }
+
+    /**
+     * Forget the viewers that have disconnected
+     */
+    private void prune() {
+        synchronized (this) {
+            viewers.removeIf(viewer -> viewer.closed);
+        }
+    }
+
+    private void read(Viewer viewer) {
+        try {
+            discard.clear();
+            if (viewer.channel.read(discard) < 0) {
+                shut(viewer);
+            }
+        } catch (IOException e) {
+            shut(viewer);
+        }
+    }
+
+    /**
+     * Remember the quantized position of each boid in the frame, as the base of
+     * the next delta
+     */
+    private void remember(Snapshot snapshot, long frame) {
+        for (int i = 0; i < snapshot.size(); i++) {
+            int id = snapshot.getId(i);
+            if (id >= seen.length) {
+                int length = Math.max(id + 1, 2 * seen.length);
+                int from = seen.length;
+                seen = Arrays.copyOf(seen, length);
+                Arrays.fill(seen, from, length, -1);
+                lastX = Arrays.copyOf(lastX, length);
+                lastY = Arrays.copyOf(lastY, length);
+                lastZ = Arrays.copyOf(lastZ, length);
+            }
+            seen[id] = frame;
+            lastX[id] = Math.floorDiv(snapshot.getX(i), quantum);
+            lastY[id] = Math.floorDiv(snapshot.getY(i), quantum);
+            lastZ[id] = Math.floorDiv(snapshot.getZ(i), quantum);
+        }
+    }
+
+    private void serve() {
+        try {
+            while (running) {
+                selector.select();
+                for (Iterator<SelectionKey> i = selector.selectedKeys().iterator(); i.hasNext();) {
+                    SelectionKey key = i.next();
+                    i.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        connect();
+                        continue;
+                    }
+                    Viewer viewer = (Viewer) key.attachment();
+                    if (key.isReadable()) {
+                        read(viewer);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        write(viewer);
+                    }
+                }
+                prune();
+                Snapshot snapshot = pending.getAndSet(null);
+                if (snapshot != null) {
+                    broadcast(snapshot);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        } finally {
+            for (Viewer viewer : viewers) {
+                shut(viewer);
+            }
+            prune();
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+    }
+
+    private void shut(Viewer viewer) {
+        viewer.closed = true;
+        viewer.pending = null;
+        try {
+            viewer.channel.close();
+        } catch (IOException e) {
+            // the viewer is gone regardless
+        }
+    }
+
+    /**
+     * Write as much of the viewer's pending frame as the socket takes, waiting
+     * for it to become writable for the rest
+     */
+    private void write(Viewer viewer) {
+        if (viewer.closed || viewer.pending == null) {
+            return;
+        }
+        try {
+            viewer.channel.write(viewer.pending);
+        } catch (IOException e) {
+            shut(viewer);
+            return;
+        }
+        SelectionKey key = viewer.channel.keyFor(selector);
+        if (viewer.pending.hasRemaining()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } else {
+            viewer.pending = null;
+            viewer.last = viewer.sending;
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+}
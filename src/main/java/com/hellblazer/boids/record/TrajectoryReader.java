@@ -0,0 +1,221 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.hellblazer.boids.record;
+
+import static com.hellblazer.boids.record.TrajectoryRecorder.BLOCK_HEADER_SIZE;
+import static com.hellblazer.boids.record.TrajectoryRecorder.HEADER_SIZE;
+import static com.hellblazer.boids.record.TrajectoryRecorder.INDEX;
+import static com.hellblazer.boids.record.TrajectoryRecorder.INDEX_CHUNK;
+import static com.hellblazer.boids.record.TrajectoryRecorder.INDEX_ENTRY_SIZE;
+import static com.hellblazer.boids.record.TrajectoryRecorder.MAGIC;
+import static com.hellblazer.boids.record.TrajectoryRecorder.RECORD_SIZE;
+import static com.hellblazer.boids.record.TrajectoryRecorder.TICKS_OFFSET;
+import static com.hellblazer.boids.record.TrajectoryRecorder.VERSION;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.vecmath.Point3i;
+
+import com.hellblazer.boids.engine.Snapshot;
+
+/**
+ * Reads a trajectory written by {@link TrajectoryRecorder}. The index and the
+ * segments are memory mapped on demand, so seeking to a tick only touches the
+ * pages of the index searched and of the tick's block, however long the
+ * recording.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class TrajectoryReader implements Closeable {
+    /**
+     * The most recently used segment mappings
+     */
+    private static class MappedSegments extends LinkedHashMap<Integer, MappedByteBuffer> {
+        private static final int  MAPPED_SEGMENTS  = 16;
+        private static final long serialVersionUID = 1L;
+
+        MappedSegments() {
+            super(MAPPED_SEGMENTS, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, MappedByteBuffer> eldest) {
+            return size() > MAPPED_SEGMENTS;
+        }
+    }
+
+    private final Path                           directory;
+    private final Point3i                        field;
+    private MappedByteBuffer                     index;
+    private final FileChannel                    indexChannel;
+    private int                                  indexChunk = -1;
+    private final Map<Integer, MappedByteBuffer> segments   = new MappedSegments();
+    private final int                            segmentSize;
+    private final long                           ticks;
+
+    public TrajectoryReader(Path directory) throws IOException {
+        this.directory = directory;
+        indexChannel = FileChannel.open(directory.resolve(INDEX), StandardOpenOption.READ);
+        if (indexChannel.size() < HEADER_SIZE) {
+            indexChannel.close();
+            throw new IOException("Not a trajectory: " + directory);
+        }
+        MappedByteBuffer header = indexChannel.map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getLong() != MAGIC || header.getInt() != VERSION || header.getInt() != RECORD_SIZE) {
+            indexChannel.close();
+            throw new IOException("Not a trajectory, or an unsupported version: " + directory);
+        }
+        segmentSize = header.getInt();
+        field = new Point3i(header.getInt(), header.getInt(), header.getInt());
+        ticks = header.getLong(TICKS_OFFSET);
+    }
+
+    @Override
+    public void close() throws IOException {
+        index = null;
+        segments.clear();
+        indexChannel.close();
+    }
+
+    /**
+     * @return the index of the last recorded entry at or before the tick, or -1
+     *         if the tick precedes the recording
+     */
+    public long find(long tick) {
+        long low = 0;
+        long high = ticks - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            long t = getTick(mid);
+            if (t < tick) {
+                low = mid + 1;
+            } else if (t > tick) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return high;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the extent of the recorded field
+     */
+    public Point3i getField() {
+        return new Point3i(field);
+    }
+
+    /**
+     * @return the simulation tick of the entry
+     */
+    public long getTick(long entry) {
+        return entry(entry).getLong(offset(entry));
+    }
+
+    /**
+     * @return the number of recorded ticks
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * @return the snapshot of the last recorded tick at or before the tick
+     */
+    public Snapshot read(long tick) throws IOException {
+        long entry = find(tick);
+        if (entry < 0) {
+            throw new IllegalArgumentException("Tick " + tick + " precedes the recording");
+        }
+        return readEntry(entry);
+    }
+
+    /**
+     * @return the snapshot of the indexed entry
+     */
+    public Snapshot readEntry(long entry) throws IOException {
+        MappedByteBuffer chunk = entry(entry);
+        int position = offset(entry);
+        int segment = chunk.getInt(position + 8);
+        int offset = chunk.getInt(position + 12);
+        MappedByteBuffer block = segment(segment);
+        long tick = block.getLong(offset);
+        int count = block.getInt(offset + 8);
+        Snapshot.Builder builder = new Snapshot.Builder(tick, count);
+        for (int i = 0, r = offset + BLOCK_HEADER_SIZE; i < count; i++, r += RECORD_SIZE) {
+            int kind = block.getInt(r + 4);
+            builder.add(block.getInt(r), kind >>> 24, kind & 0xFFFFFF, block.getInt(r + 8), block.getInt(r + 12),
+                        block.getInt(r + 16), block.getInt(r + 20), block.getInt(r + 24), block.getInt(r + 28));
+        }
+        return builder.build();
+    }
+
+    private MappedByteBuffer entry(long entry) {
+        if (entry < 0 || entry >= ticks) {
+            throw new IndexOutOfBoundsException("No entry " + entry + " in " + ticks + " recorded ticks");
+        }
+        int chunk = (int) (entry / INDEX_CHUNK);
+        if (chunk != indexChunk) {
+            try {
+                long start = HEADER_SIZE + (long) chunk * INDEX_CHUNK * INDEX_ENTRY_SIZE;
+                index = indexChannel.map(MapMode.READ_ONLY, start,
+                                         Math.min((long) INDEX_CHUNK * INDEX_ENTRY_SIZE,
+                                                  indexChannel.size() - start));
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to map index of " + directory, e);
+            }
+            index.order(ByteOrder.LITTLE_ENDIAN);
+            indexChunk = chunk;
+        }
+        return index;
+    }
+
+    private int offset(long entry) {
+        return (int) (entry % INDEX_CHUNK) * INDEX_ENTRY_SIZE;
+    }
+
+    private MappedByteBuffer segment(int segment) throws IOException {
+        MappedByteBuffer buffer = segments.get(segment);
+        if (buffer == null) {
+            try (FileChannel channel = FileChannel.open(TrajectoryRecorder.segment(directory, segment),
+                                                        StandardOpenOption.READ)) {
+                buffer = channel.map(MapMode.READ_ONLY, 0, Math.min(segmentSize, channel.size()));
+            }
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            segments.put(segment, buffer);
+        }
+        return buffer;
+    }
+}
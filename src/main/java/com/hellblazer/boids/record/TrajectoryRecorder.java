@@ -0,0 +1,274 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.hellblazer.boids.record;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.vecmath.Point3i;
+
+import com.hellblazer.boids.engine.Snapshot;
+
+/**
+ * Records the trajectories of the boids, tick by tick, into memory mapped
+ * files in a directory. The format is:
+ *
+ * <pre>
+ * trajectory.idx   - header, then an index entry per recorded tick
+ *     header       - magic, version, record size, segment size, field x, y, z
+ *                    and the number of recorded ticks, padded to 64 bytes
+ *     entry        - tick (long), segment (int), offset of the tick's block (int)
+ * segment-NNNNNN.dat - append only, preallocated segments of tick blocks
+ *     block        - tick (long), count (int), reserved (int), then count records
+ *     record       - id, species &lt;&lt; 24 | rgb, x, y, z, vx, vy, vz (ints)
+ * </pre>
+ *
+ * All values are little endian. A block never spans segments; the unused tail
+ * of a segment is never read, as the index is authoritative.
+ * <p>
+ * As a listener, the recorder hands snapshots to its own writer thread through
+ * a bounded queue, so the tick loop only pays for the hand off. The queue
+ * absorbs bursts; should the disk fall behind for longer, the ticks that do not
+ * fit are dropped and counted rather than holding up the simulation. The index
+ * records each tick's number, so a reader sees the gaps.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class TrajectoryRecorder implements Consumer<Snapshot>, Closeable {
+    public static final int       BLOCK_HEADER_SIZE    = 16;
+    public static final int       DEFAULT_QUEUE_SIZE   = 64;
+    public static final int       DEFAULT_SEGMENT_SIZE = 256 << 20;
+    public static final int       HEADER_SIZE          = 64;
+    public static final String    INDEX                = "trajectory.idx";
+    public static final int       INDEX_ENTRY_SIZE     = 16;
+    public static final long      MAGIC                = 0x424F49445452414AL; // "BOIDTRAJ"
+    public static final int       RECORD_SIZE          = 32;
+    public static final int       TICKS_OFFSET         = 32;
+    public static final int       VERSION              = 1;
+    static final int              INDEX_CHUNK          = 1 << 20;
+    private static final Snapshot END                  = new Snapshot.Builder(-1, 0).build();
+
+    public static Path segment(Path directory, int segment) {
+        return directory.resolve(String.format("segment-%06d.dat", segment));
+    }
+
+    private final Path                    directory;
+    private final AtomicLong              dropped       = new AtomicLong();
+    private volatile Throwable            failure;
+    private final MappedByteBuffer        header;
+    private MappedByteBuffer              index;
+    private final FileChannel             indexChannel;
+    private int                           indexChunk    = -1;
+    private long                          lastTick      = Long.MIN_VALUE;
+    private final BlockingQueue<Snapshot> queue;
+    private MappedByteBuffer              segment;
+    private int                           segmentNumber = -1;
+    private final int                     segmentSize;
+    private long                          ticks;
+    private Thread                        writer;
+
+    public TrajectoryRecorder(Path directory, Point3i field) throws IOException {
+        this(directory, field, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public TrajectoryRecorder(Path directory, Point3i field, int segmentSize) throws IOException {
+        this(directory, field, segmentSize, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Create a new recording in the directory, which must not already contain
+     * one
+     *
+     * @param queueSize - the snapshots that may wait for the writer before
+     *                  ticks are dropped
+     */
+    public TrajectoryRecorder(Path directory, Point3i field, int segmentSize, int queueSize) throws IOException {
+        if (segmentSize < BLOCK_HEADER_SIZE + RECORD_SIZE) {
+            throw new IllegalArgumentException("Segment size must hold at least one record");
+        }
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("Queue size must be positive");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        Files.createDirectories(directory);
+        indexChannel = FileChannel.open(directory.resolve(INDEX), StandardOpenOption.CREATE_NEW,
+                                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+        header = indexChannel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(MAGIC)
+              .putInt(VERSION)
+              .putInt(RECORD_SIZE)
+              .putInt(segmentSize)
+              .putInt(field.x)
+              .putInt(field.y)
+              .putInt(field.z)
+              .putLong(0L);
+    }
+
+    /**
+     * Queue the snapshot for recording by the writer thread, dropping it if the
+     * writer has fallen too far behind
+     */
+    @Override
+    public void accept(Snapshot snapshot) {
+        checkFailure();
+        if (writer == null) {
+            writer = new Thread(this::write, "Trajectory Recorder");
+            writer.setDaemon(true);
+            writer.start();
+        }
+        if (!queue.offer(snapshot)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Finish writing any queued snapshots and close the recording
+     */
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            try {
+                queue.put(END);
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writer = null;
+        }
+        header.force();
+        if (index != null) {
+            index.force();
+        }
+        if (segment != null) {
+            segment.force();
+        }
+        indexChannel.close();
+        checkFailure();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the number of ticks dropped because the writer had fallen behind
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of ticks recorded
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Record the snapshot on the calling thread
+     */
+    public void record(Snapshot snapshot) throws IOException {
+        if (snapshot.getTick() <= lastTick) {
+            throw new IllegalArgumentException("Ticks must be recorded in increasing order: " + snapshot.getTick());
+        }
+        long size = BLOCK_HEADER_SIZE + (long) snapshot.size() * RECORD_SIZE;
+        if (size > segmentSize) {
+            throw new IllegalArgumentException(String.format("A tick of %,d boids exceeds the segment size",
+                                                             snapshot.size()));
+        }
+        if (segment == null || segment.remaining() < size) {
+            nextSegment();
+        }
+        int offset = segment.position();
+        segment.putLong(snapshot.getTick()).putInt(snapshot.size()).putInt(0);
+        for (int i = 0; i < snapshot.size(); i++) {
+            segment.putInt(snapshot.getId(i))
+                   .putInt(snapshot.getSpecies(i) << 24 | snapshot.getColor(i) & 0xFFFFFF)
+                   .putInt(snapshot.getX(i))
+                   .putInt(snapshot.getY(i))
+                   .putInt(snapshot.getZ(i))
+                   .putInt(snapshot.getVx(i))
+                   .putInt(snapshot.getVy(i))
+                   .putInt(snapshot.getVz(i));
+        }
+        int chunk = (int) (ticks / INDEX_CHUNK);
+        if (chunk != indexChunk) {
+            index = indexChannel.map(MapMode.READ_WRITE, HEADER_SIZE + (long) chunk * INDEX_CHUNK * INDEX_ENTRY_SIZE,
+                                     (long) INDEX_CHUNK * INDEX_ENTRY_SIZE);
+            index.order(ByteOrder.LITTLE_ENDIAN);
+            indexChunk = chunk;
+        }
+        index.putLong(snapshot.getTick()).putInt(segmentNumber).putInt(offset);
+        lastTick = snapshot.getTick();
+        ticks++;
+        header.putLong(TICKS_OFFSET, ticks);
+    }
+
+    private void checkFailure() {
+        Throwable t = failure;
+        if (t instanceof IOException e) {
+            throw new UncheckedIOException("Unable to record trajectory", e);
+        } else if (t != null) {
+            throw new IllegalStateException("Unable to record trajectory", t);
+        }
+    }
+
+    private void nextSegment() throws IOException {
+        segmentNumber++;
+        try (FileChannel channel = FileChannel.open(segment(directory, segmentNumber), StandardOpenOption.CREATE_NEW,
+                                                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(MapMode.READ_WRITE, 0, segmentSize);
+        }
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void write() {
+        try {
+            for (Snapshot snapshot = queue.take(); snapshot != END; snapshot = queue.take()) {
+                if (failure != null) {
+                    continue; // drain, so that producers never block on a failed writer
+                }
+                try {
+                    record(snapshot);
+                } catch (IOException | RuntimeException e) {
+                    failure = e;
+                }
+            }
+        } catch (InterruptedException e) {
+            return;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.hellblazer.boids.render;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import com.hellblazer.boids.engine.Snapshot;
+
+/**
+ * Rasterizes the boids of a snapshot, with their trails, directly into the
+ * pixels of an image. Discs are pre-rendered as row spans per diameter, so
+ * drawing a boid is a handful of array fills and no Java2D calls are made per
+ * boid.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class RasterRenderer {
+    /**
+     * Body diameter and tail scale, in pixels, by species
+     */
+    public static final int[] BODY = { 5, 10 };
+    public static final int[] TAIL = { 1, 2 };
+
+    /**
+     * The row spans of a disc of each diameter: the left and right offsets of
+     * each row from the top left corner of the bounding square
+     */
+    private static int[][] discs(int maxDiameter) {
+        int[][] discs = new int[maxDiameter + 1][];
+        for (int d = 0; d <= maxDiameter; d++) {
+            int[] spans = new int[d * 2];
+            double r = d / 2.0;
+            for (int row = 0; row < d; row++) {
+                double dy = row + 0.5 - r;
+                double half = Math.sqrt(Math.max(0.0, r * r - dy * dy));
+                int left = (int) Math.round(r - half);
+                int right = (int) Math.round(r + half);
+                spans[row * 2] = left;
+                spans[row * 2 + 1] = Math.max(left, right);
+            }
+            discs[d] = spans;
+        }
+        return discs;
+    }
+
+    private int                 background   = 0xFFFFFF;
+    private int                 bands;
+    private final int[][]       discs;
+    private final int           height;
+    private final BufferedImage image;
+    private final int[]         pixels;
+    private long                renderedTick = -1;
+    private final int           scale;
+    private int                 selectedId   = -1;
+    private final Trails        trails;
+    private final int           width;
+
+    public RasterRenderer(int width, int height, int scale, int trailLength) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Image dimensions must be positive");
+        }
+        if (scale <= 0) {
+            throw new IllegalArgumentException("Scale must be positive");
+        }
+        this.width = width;
+        this.height = height;
+        this.scale = scale;
+        bands = Math.min(height, Runtime.getRuntime().availableProcessors());
+        trails = new Trails(trailLength);
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int maxDiameter = 0;
+        for (int kind = 0; kind < BODY.length; kind++) {
+            maxDiameter = Math.max(maxDiameter, Math.max(BODY[kind] * 2, (trailLength - 1) * TAIL[kind]));
+        }
+        discs = discs(maxDiameter);
+    }
+
+    /**
+     * Forget the trails, as when the rendered ticks are no longer consecutive
+     */
+    public void clearTrails() {
+        trails.clear();
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * Render the snapshot into the image. The trails advance only when the
+     * snapshot is of a tick not yet rendered, so a snapshot may be rendered any
+     * number of times. The image is rasterized in horizontal bands, one per
+     * available processor.
+     *
+     * @return the image
+     */
+    public BufferedImage render(Snapshot snapshot) {
+        if (snapshot.getTick() != renderedTick) {
+            trails.update(snapshot);
+            renderedTick = snapshot.getTick();
+        }
+        if (bands == 1) {
+            render(snapshot, 0, height);
+        } else {
+            IntStream.range(0, bands)
+                     .parallel()
+                     .forEach(band -> render(snapshot, height * band / bands, height * (band + 1) / bands));
+        }
+        return image;
+    }
+
+    public void setBackground(int rgb) {
+        background = rgb & 0xFFFFFF;
+    }
+
+    /**
+     * @param bands - the number of bands rendered in parallel
+     */
+    public void setBands(int bands) {
+        if (bands < 1 || bands > height) {
+            throw new IllegalArgumentException("Bands must be between 1 and the image height");
+        }
+        this.bands = bands;
+    }
+
+    /**
+     * @param id - the id of the boid to highlight, or -1 for none
+     */
+    public void setSelectedId(int id) {
+        selectedId = id;
+    }
+
+    /**
+     * Rasterize the rows of the image from top, inclusive, to bottom, exclusive
+     */
+    protected void render(Snapshot snapshot, int top, int bottom) {
+        Arrays.fill(pixels, top * width, bottom * width, background);
+        int length = trails.getLength();
+        for (int i = 0; i < snapshot.size(); i++) {
+            int id = snapshot.getId(i);
+            int kind = snapshot.getSpecies(i);
+            int rgb = snapshot.getColor(i) & 0xFFFFFF;
+            int tail = TAIL[kind];
+            for (int age = 1; age < length; age++) {
+                stamp(trails.getX(id, age) / scale - age, trails.getY(id, age) / scale - age, age * tail, rgb, top,
+                      bottom);
+            }
+            int body = BODY[kind];
+            int x = snapshot.getX(i) / scale;
+            int y = snapshot.getY(i) / scale;
+            stamp(x - body / 2, y - body / 2, body, rgb, top, bottom);
+            if (id == selectedId) {
+                ring(x - body, y - body, body * 2, 0x0000FF, top, bottom);
+            }
+        }
+    }
+
+    /**
+     * Draw the outline of a disc with the top left corner of its bounding square
+     * at (x, y), clipped to the rows from top to bottom
+     */
+    protected void ring(int x, int y, int diameter, int rgb, int top, int bottom) {
+        int[] spans = discs[diameter];
+        for (int row = Math.max(0, top - y); row < Math.min(diameter, bottom - y); row++) {
+            plot(x + spans[row * 2], y + row, rgb);
+            plot(x + spans[row * 2 + 1] - 1, y + row, rgb);
+        }
+    }
+
+    /**
+     * Fill a disc with the top left corner of its bounding square at (x, y),
+     * clipped to the image columns and the rows from top to bottom
+     */
+    protected void stamp(int x, int y, int diameter, int rgb, int top, int bottom) {
+        if (diameter <= 0 || x >= width || y >= bottom || x + diameter <= 0 || y + diameter <= top) {
+            return;
+        }
+        int[] spans = discs[diameter];
+        if (x >= 0 && y >= top && x + diameter <= width && y + diameter <= bottom) {
+            for (int row = 0, offset = y * width + x; row < diameter; row++, offset += width) {
+                for (int i = offset + spans[row * 2], end = offset + spans[row * 2 + 1]; i < end; i++) {
+                    pixels[i] = rgb;
+                }
+            }
+            return;
+        }
+        for (int row = Math.max(0, top - y); row < Math.min(diameter, bottom - y); row++) {
+            int from = Math.max(0, x + spans[row * 2]);
+            int to = Math.min(width, x + spans[row * 2 + 1]);
+            if (from < to) {
+                int offset = (y + row) * width;
+                Arrays.fill(pixels, offset + from, offset + to, rgb);
+            }
+        }
+    }
+
+    private void plot(int x, int y, int rgb) {
+        if (x >= 0 && x < width) {
+            pixels[y * width + x] = rgb;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.boids.render;
+
+import java.util.Arrays;
+
+import com.hellblazer.boids.engine.Snapshot;
+
+/**
+ * The recent positions of each boid, kept in primitive ring buffers indexed by
+ * boid id. Trails are advanced once per rendered snapshot, so skipped ticks
+ * simply stretch the trail.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class Trails {
+    private int[]     heads = new int[0];
+    private int[]     lastX = new int[0];
+    private int[]     lastY = new int[0];
+    private final int length;
+    private long[]    seen  = new long[0];
+    private long      updates;
+    private int[]     xs    = new int[0];
+    private int[]     ys    = new int[0];
+
+    public Trails(int length) {
+        this.length = length;
+    }
+
+    /**
+     * Forget the trails; every boid starts afresh with the next update
+     */
+    public void clear() {
+        updates++;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @param id
+     * @param age - 0 for the oldest position, length - 1 for the newest
+     * @return the x coordinate of the trail point
+     */
+    public int getX(int id, int age) {
+        return xs[slot(id, age)];
+    }
+
+    /**
+     * @param id
+     * @param age - 0 for the oldest position, length - 1 for the newest
+     * @return the y coordinate of the trail point
+     */
+    public int getY(int id, int age) {
+        return ys[slot(id, age)];
+    }
+
+    /**
+     * Advance the trails to the snapshot. Boids that were not in the previous
+     * update start with a collapsed trail at their current position.
+     */
+    public void update(Snapshot snapshot) {
+        updates++;
+        for (int i = 0; i < snapshot.size(); i++) {
+            int id = snapshot.getId(i);
+            ensureCapacity(id);
+            int x = snapshot.getX(i);
+            int y = snapshot.getY(i);
+            int base = id * length;
+            if (seen[id] != updates - 1) {
+                Arrays.fill(xs, base, base + length, x);
+                Arrays.fill(ys, base, base + length, y);
+                heads[id] = 0;
+            } else {
+                int head = heads[id];
+                xs[base + head] = lastX[id];
+                ys[base + head] = lastY[id];
+                heads[id] = (head + 1) % length;
+            }
+            lastX[id] = x;
+            lastY[id] = y;
+            seen[id] = updates;
+        }
+    }
+
+    private void ensureCapacity(int id) {
+        if (id < heads.length) {
+            return;
+        }
+        int capacity = Math.max(id + 1, heads.length * 2);
+        heads = Arrays.copyOf(heads, capacity);
+        lastX = Arrays.copyOf(lastX, capacity);
+        lastY = Arrays.copyOf(lastY, capacity);
+        int previous = seen.length;
+        seen = Arrays.copyOf(seen, capacity);
+        Arrays.fill(seen, previous, capacity, -1);
+        xs = Arrays.copyOf(xs, capacity * length);
+        ys = Arrays.copyOf(ys, capacity * length);
+    }
+
+    private int slot(int id, int age) {
+        int slot = heads[id] + age;
+        return id * length + (slot < length ? slot : slot - length);
+    }
+}
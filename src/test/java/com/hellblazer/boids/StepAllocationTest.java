@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.boids;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import javax.vecmath.Point3i;
+
+import org.junit.jupiter.api.Test;
+
+import com.hellblazer.boids.behavior.FlockingBehaviorTest.Neighbor;
+import com.hellblazer.boids.behavior.FlockingPrey;
+import com.hellblazer.boids.behavior.Interaction;
+import com.hellblazer.boids.behavior.SpeciesRegistry;
+import com.hellblazer.boids.engine.Parameters;
+import com.hellblazer.geometry.Vector3i;
+import com.hellblazer.primeMover.annotations.Entity;
+import com.hellblazer.primeMover.controllers.SteppingController;
+import com.hellblazer.primeMover.runtime.Framework;
+import com.hellblazer.thoth.Cursor;
+import com.hellblazer.thoth.Perceiving;
+
+/**
+ * A warmed up boid step must not allocate. The step is dispatched as an event,
+ * so the allocation of dispatching a step to a boid that does nothing is
+ * subtracted from that of the prey's steps.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class StepAllocationTest {
+    /**
+     * A cursor that tracks its location and counts the moves
+     */
+    public static class CountingCursor implements Cursor {
+        private final Point3i location;
+        private long          moves;
+
+        public CountingCursor(Point3i location) {
+            this.location = new Point3i(location);
+        }
+
+        @Override
+        public Point3i getLocation() {
+            return location;
+        }
+
+        @Override
+        public void moveBy(Vector3i velocity) {
+            location.add(velocity);
+            moves++;
+        }
+    }
+
+    /**
+     * A boid that does nothing, to measure the allocation of dispatching a step
+     */
+    @Entity({ Boid.class })
+    public static class Idle implements Boid<Perceiving> {
+        @Override
+        public void eatenBy(Boid<?> predator) {
+        }
+
+        @Override
+        public void fade(Perceiving neighbor) {
+        }
+
+        @Override
+        public void move(Perceiving neighbor, Point3i location, Vector3i velocity) {
+        }
+
+        @Override
+        public void notice(Perceiving neighbor, Point3i location) {
+        }
+
+        @Override
+        public void setCursor(Cursor cursor) {
+        }
+
+        @Override
+        public void step() {
+        }
+    }
+
+    private static final Point3i CENTER    = new Point3i(75_000, 50_000, 0);
+    private static final int     NEIGHBORS = 64;
+    private static final int     SPECIES   = 0;
+    private static final int     STEPS     = 200_000;
+    private static final int     WARMUP    = 200_000;
+
+    @Test
+    public void stepDoesNotAllocate() {
+        SteppingController controller = new SteppingController();
+        Framework.setController(controller);
+        Prey<Neighbor, Neighbor> prey = prey(new Random(666), new Parameters());
+        CountingCursor cursor = new CountingCursor(CENTER);
+        prey.setCursor(cursor);
+        drain(controller);
+
+        long dispatch = allocated(new Idle(), controller);
+        long movesBefore = cursor.moves;
+        Point3i before = new Point3i(cursor.getLocation());
+        long steps = allocated(prey, controller);
+        assertEquals(WARMUP + STEPS, cursor.moves - movesBefore, "moves");
+        assertNotEquals(before, cursor.getLocation(), "location");
+        double perStep = (double) (steps - dispatch) / STEPS;
+        // the allocation counter itself may allocate a handful of bytes
+        assertTrue(perStep < 1.0, String.format("%.4f bytes allocated per step", perStep));
+    }
+
+    /**
+     * @return the bytes allocated by the warmed up steps of the boid
+     */
+    private long allocated(Boid<?> boid, SteppingController controller) {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().threadId();
+        for (int i = 0; i < WARMUP; i++) {
+            boid.step();
+            drain(controller);
+        }
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < STEPS; i++) {
+            boid.step();
+            drain(controller);
+        }
+        return threads.getThreadAllocatedBytes(thread) - before;
+    }
+
+    private void drain(SteppingController controller) {
+        try {
+            controller.step();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Unable to step controller", e);
+        }
+    }
+
+    /**
+     * @return a prey surrounded by flock mates within its area of interest
+     */
+    private Prey<Neighbor, Neighbor> prey(Random random, Parameters parameters) {
+        SpeciesRegistry registry = new SpeciesRegistry();
+        registry.register("prey");
+        registry.set(SPECIES, SPECIES, Interaction.FLOCK);
+        FlockingPrey<Neighbor, Neighbor> behavior = new FlockingPrey<>();
+        behavior.setSpecies(registry, SPECIES);
+        behavior.setCohesionChange(parameters.preyCohesionChange);
+        behavior.setMaximumFlockDistance(parameters.maximumPreyFlockDistance);
+        behavior.setRepellerChange(parameters.preyRepellerChange);
+        behavior.setVelocityMatchChange(parameters.preyVelocityMatchChange);
+        int radius = parameters.preyAoiRadius / 2;
+        for (int i = 0; i < NEIGHBORS; i++) {
+            Point3i position = new Point3i(CENTER.x + random.nextInt(2 * radius) - radius,
+                                           CENTER.y + random.nextInt(2 * radius) - radius, 0);
+            Neighbor mate = new Neighbor(SPECIES);
+            behavior.notice(mate, position);
+            behavior.move(mate, position, velocity(random, parameters.maxPreySpeed));
+        }
+        int scale = parameters.scale;
+        Prey<Neighbor, Neighbor> prey = new Prey<>(behavior, velocity(random, parameters.maxPreySpeed),
+                                                   parameters.maxPreySpeed,
+                                                   new Animation(scale, 5 * scale, 5 * scale, Color.blue, 1),
+                                                   parameters.field(), dead -> {
+                                                   });
+        prey.setRandomChange(parameters.preyRandomChange);
+        return prey;
+    }
+
+    private Vector3i velocity(Random random, int maximumSpeed) {
+        return new Vector3i(random.nextInt(maximumSpeed * 2) - maximumSpeed,
+                            random.nextInt(maximumSpeed * 2) - maximumSpeed, 0);
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.boids.behavior;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+
+import javax.vecmath.Point3i;
+
+import org.junit.jupiter.api.Test;
+
+import com.hellblazer.boids.Animation;
+import com.hellblazer.boids.Prey;
+import com.hellblazer.geometry.Vector3i;
+import com.hellblazer.primeMover.controllers.SteppingController;
+import com.hellblazer.primeMover.runtime.Framework;
+import com.hellblazer.thoth.Cursor;
+import com.hellblazer.thoth.Perceiving;
+
+/**
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class FlockingBehaviorTest {
+    /**
+     * A cursor that tells a flock mate of each move of its boid, as the overlay
+     * would
+     */
+    public static class MateCursor implements Cursor {
+        private Perceiving                         boid;
+        private final Point3i                      location;
+        private final FlockingBehavior<Perceiving> mate;
+        private int                                moves;
+
+        public MateCursor(Point3i location, FlockingBehavior<Perceiving> mate) {
+            this.location = new Point3i(location);
+            this.mate = mate;
+        }
+
+        @Override
+        public Point3i getLocation() {
+            return location;
+        }
+
+        @Override
+        public void moveBy(Vector3i velocity) {
+            location.add(velocity);
+            moves++;
+            mate.move(boid, new Point3i(location), new Vector3i(velocity));
+        }
+    }
+
+    /**
+     * A neighbor of a species, which perceives nothing itself
+     */
+    public static class Neighbor implements Perceiving, Speciated {
+        private final int species;
+
+        public Neighbor(int species) {
+            this.species = species;
+        }
+
+        @Override
+        public void fade(Perceiving neighbor) {
+        }
+
+        @Override
+        public int getSpeciesId() {
+            return species;
+        }
+
+        @Override
+        public void move(Perceiving neighbor, Point3i location, Vector3i velocity) {
+        }
+
+        @Override
+        public void notice(Perceiving neighbor, Point3i location) {
+        }
+
+        @Override
+        public void setCursor(Cursor cursor) {
+        }
+    }
+
+    private static final Point3i CENTER        = new Point3i(1000, 1000, 0);
+    private static final int     MAXIMUM_SPEED = 100;
+
+    @Test
+    public void cruisingMateSeesTheVelocity() throws Throwable {
+        SpeciesRegistry registry = new SpeciesRegistry();
+        int species = registry.register("prey");
+        registry.set(species, species, Interaction.FLOCK);
+
+        FlockingBehavior<Perceiving> mate = new FlockingBehavior<>();
+        mate.setSpecies(registry, species);
+        FlockingPrey<Neighbor, Neighbor> behavior = new FlockingPrey<>();
+        behavior.setSpecies(registry, species);
+        behavior.notice(new Neighbor(species), new Point3i(1100, 1000, 0));
+
+        SteppingController controller = new SteppingController();
+        Framework.setController(controller);
+        Prey<Neighbor, Neighbor> boid = new Prey<>(behavior, new Vector3i(30, 40, 0), MAXIMUM_SPEED,
+                                                   new Animation(1, 5, 5, Color.blue, 1), new Point3i(2000, 2000, 0),
+                                                   dead -> {
+                                                   });
+        boid.setSpeciesId(species);
+        boid.setMaximumStride(8);
+        boid.setCruisingStride(4);
+        MateCursor cursor = new MateCursor(CENTER, mate);
+        cursor.boid = boid;
+        boid.setCursor(cursor);
+        controller.step();
+        mate.notice(boid, cursor.getLocation());
+
+        boid.steer();
+        boid.commit();
+        assertEquals(4, boid.getStride());
+        Point3i before = new Point3i(cursor.getLocation());
+        cursor.moves = 0;
+        boid.steer();
+        boid.commit();
+
+        Vector3i velocity = boid.getVelocity();
+        assertEquals(4, cursor.moves);
+        assertEquals(new Point3i(before.x + 4 * velocity.x, before.y + 4 * velocity.y, before.z + 4 * velocity.z),
+                     cursor.getLocation());
+        assertEquals(velocity, mate.velocitySum);
+        assertEquals(velocity, mate.getFlockState(boid).velocity);
+    }
+
+    @Test
+    public void speciesHuntsAndFleesByTheMatrix() {
+        SpeciesRegistry registry = new SpeciesRegistry();
+        int prey = registry.register("prey");
+        int middle = registry.register("middle");
+        int apex = registry.register("apex");
+        registry.set(middle, prey, Interaction.HUNT);
+        registry.set(middle, apex, Interaction.FLEE, 2.0);
+
+        FlockingBehavior<Neighbor> behavior = new FlockingBehavior<>();
+        behavior.setFlockClass(Neighbor.class);
+        behavior.setSpecies(registry, middle);
+        behavior.setHuntChange(0.5);
+        behavior.setPredatorFleeChange(0.5);
+        behavior.setScareDistance(1000);
+
+        Neighbor quarry = new Neighbor(prey);
+        Neighbor hunter = new Neighbor(apex);
+        behavior.notice(quarry, new Point3i(1200, 1000, 0));
+        behavior.notice(hunter, new Point3i(1000, 1200, 0));
+        assertFalse(behavior.isCalm());
+        assertEquals(0, behavior.getFlockSize());
+        assertEquals(quarry, behavior.getNearestPrey(CENTER, 500));
+
+        // toward the prey at the maximum speed, weighed 1, and away from the apex
+        // predator, weighed 2
+        assertEquals(new Vector3i(50, -200, 0), flockingVector(behavior));
+
+        behavior.move(hunter, new Point3i(1000, 1100, 0), new Vector3i(0, -100, 0));
+        assertEquals(new Vector3i(50, -100, 0), flockingVector(behavior));
+
+        behavior.fade(hunter);
+        assertEquals(new Vector3i(50, 0, 0), flockingVector(behavior));
+        behavior.fade(quarry);
+        assertTrue(behavior.isCalm());
+        assertTrue(behavior.isAlone());
+    }
+
+    private Vector3i flockingVector(FlockingBehavior<Neighbor> behavior) {
+        return behavior.getFlockingVector(CENTER, new Vector3i(), MAXIMUM_SPEED);
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.boids.behavior;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.Random;
+
+import javax.vecmath.Point3i;
+
+import org.junit.jupiter.api.Test;
+
+import com.hellblazer.geometry.Vector3i;
+
+/**
+ * The scalar and vector kernels must find the same flock mates, and the same
+ * sum of their positions, as a search of the flock one mate at a time.
+ *
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class SeparationKernelTest {
+    private static final int FLOCKS  = 200;
+    private static final int QUERIES = 50;
+
+    @Test
+    public void vectorKernelMatchesScalarKernel() {
+        assumeTrue(SeparationKernel.isVectorAvailable(), "the vector kernel is not available");
+        Random random = new Random(666);
+        for (int flock = 0; flock < FLOCKS; flock++) {
+            SeparationKernel<Integer> scalar = SeparationKernel.create(false);
+            SeparationKernel<Integer> vector = SeparationKernel.create(true);
+            int size = random.nextInt(100);
+            Point3i[] positions = new Point3i[size];
+            for (int i = 0; i < size; i++) {
+                positions[i] = position(random);
+                scalar.put(i, positions[i]);
+                vector.put(i, positions[i]);
+            }
+            // remove and move some, so the slots are reused out of order
+            for (int i = 0; i < size / 4; i++) {
+                int mate = random.nextInt(size);
+                scalar.remove(mate);
+                vector.remove(mate);
+                positions[mate] = null;
+            }
+            for (int i = 0; i < size / 4; i++) {
+                int mate = random.nextInt(size);
+                positions[mate] = position(random);
+                scalar.put(mate, positions[mate]);
+                vector.put(mate, positions[mate]);
+            }
+            for (int query = 0; query < QUERIES; query++) {
+                Point3i center = position(random);
+                int radius = random.nextInt(50_000);
+                Vector3i expected = new Vector3i();
+                int close = 0;
+                for (Point3i position : positions) {
+                    if (position != null && within(position, center, radius)) {
+                        expected.add(position);
+                        close++;
+                    }
+                }
+                String message = "flock " + flock + " query " + query;
+                Vector3i sum = new Vector3i();
+                assertEquals(close, scalar.sumWithin(center, radius, sum), message + " scalar count");
+                assertEquals(expected, sum, message + " scalar sum");
+                sum = new Vector3i();
+                assertEquals(close, vector.sumWithin(center, radius, sum), message + " vector count");
+                assertEquals(expected, sum, message + " vector sum");
+            }
+        }
+    }
+
+    private Point3i position(Random random) {
+        return new Point3i(random.nextInt(150_000), random.nextInt(100_000), random.nextInt(50_000));
+    }
+
+    private boolean within(Point3i position, Point3i center, int radius) {
+        long dx = position.x - center.x;
+        long dy = position.y - center.y;
+        long dz = position.z - center.z;
+        return dx * dx + dy * dy + dz * dz <= (long) radius * radius;
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.boids.engine;
+
+import static com.hellblazer.boids.engine.SimulationTest.assertSameSnapshot;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class CheckpointTest {
+    private static final int TICKS = 100;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void restoreKeepsThePace() throws IOException {
+        Parameters parameters = new Parameters();
+        parameters.numOfPrey = 60;
+        parameters.numOfPredators = 2;
+        parameters.maximumStride = 8;
+        Checkpoint checkpoint;
+        try (Simulation simulation = new Simulation(parameters)) {
+            simulation.init();
+            simulation.run(TICKS);
+            checkpoint = roundTrip(simulation.checkpoint());
+        }
+        try (Simulation restored = new Simulation(parameters)) {
+            restored.restore(checkpoint);
+            assertEquals(checkpoint.getBoids(), restored.checkpoint().getBoids());
+        }
+    }
+
+    @Test
+    public void restoredRunContinuesTheRun() throws IOException {
+        Parameters parameters = SimulationTest.crowded();
+        Checkpoint checkpoint;
+        Snapshot uninterrupted;
+        try (Simulation simulation = new Simulation(parameters)) {
+            simulation.init();
+            simulation.run(TICKS);
+            checkpoint = roundTrip(simulation.checkpoint());
+            simulation.run(TICKS);
+            uninterrupted = simulation.snapshot();
+        }
+        try (Simulation restored = new Simulation(parameters)) {
+            restored.restore(checkpoint);
+            restored.run(TICKS);
+            assertSameSnapshot(uninterrupted, restored.snapshot());
+        }
+    }
+
+    /**
+     * @return the checkpoint, written and read back
+     */
+    private Checkpoint roundTrip(Checkpoint checkpoint) throws IOException {
+        Path file = directory.resolve("checkpoint-" + checkpoint.getTick());
+        checkpoint.write(file);
+        return Checkpoint.read(file);
+    }
+}
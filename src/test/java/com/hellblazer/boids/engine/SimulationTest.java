@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2008 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.boids.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author <a href="mailto:hal.hildebrand@gmail.com">Hal Hildebrand</a>
+ *
+ */
+
+public class SimulationTest {
+    private static final int TICKS = 200;
+
+    /**
+     * Assert that the snapshots are of the same boids in the same state
+     */
+    static void assertSameSnapshot(Snapshot expected, Snapshot actual) {
+        assertEquals(expected.getTick(), actual.getTick(), "tick");
+        assertEquals(expected.size(), actual.size(), "population");
+        for (int i = 0; i < expected.size(); i++) {
+            String boid = "boid " + expected.getId(i);
+            assertEquals(expected.getId(i), actual.getId(i), "id");
+            assertEquals(expected.getSpecies(i), actual.getSpecies(i), boid + " species");
+            assertEquals(expected.getColor(i), actual.getColor(i), boid + " color");
+            assertEquals(expected.getX(i), actual.getX(i), boid + " x");
+            assertEquals(expected.getY(i), actual.getY(i), boid + " y");
+            assertEquals(expected.getZ(i), actual.getZ(i), boid + " z");
+            assertEquals(expected.getVx(i), actual.getVx(i), boid + " vx");
+            assertEquals(expected.getVy(i), actual.getVy(i), boid + " vy");
+            assertEquals(expected.getVz(i), actual.getVz(i), boid + " vz");
+        }
+    }
+
+    /**
+     * @return a field crowded enough that the boids flock, flee and are eaten
+     */
+    static Parameters crowded() {
+        Parameters parameters = new Parameters();
+        parameters.width = 400;
+        parameters.height = 300;
+        parameters.numOfPrey = 200;
+        parameters.numOfPredators = 8;
+        return parameters;
+    }
+
+    @Test
+    public void deepFieldStepMovesByTheVelocity() {
+        Parameters parameters = crowded();
+        parameters.depth = 300;
+        try (Simulation simulation = new Simulation(parameters)) {
+            simulation.init();
+            simulation.run(10);
+            Snapshot before = simulation.snapshot();
+            simulation.run(1);
+            Snapshot after = simulation.snapshot();
+            for (int i = 0; i < after.size(); i++) {
+                String boid = "boid " + after.getId(i);
+                assertEquals(before.getId(i), after.getId(i), "id");
+                assertEquals(before.getX(i) + after.getVx(i), after.getX(i), boid + " x");
+                assertEquals(before.getY(i) + after.getVy(i), after.getY(i), boid + " y");
+                assertEquals(before.getZ(i) + after.getVz(i), after.getZ(i), boid + " z");
+            }
+        }
+    }
+
+    @Test
+    public void parallelTickIsIndependentOfThreads() {
+        assertSameSnapshot(run(1), run(4));
+    }
+
+    private Snapshot run(int parallelism) {
+        Parameters parameters = crowded();
+        parameters.parallelism = parallelism;
+        try (Simulation simulation = new Simulation(parameters)) {
+            simulation.init();
+            simulation.run(TICKS);
+            return simulation.snapshot();
+        }
+    }
+}